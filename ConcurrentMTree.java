@@ -0,0 +1,420 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * <p>A thread-safe counterpart to {@link MTree}. Any number of threads may insert into
+ * and read from the same tree at once:</p>
+ * <ul>
+ *     <li>Writers lock only the node they add children to, so inserts under different
+ *     parents never contend with one another.</li>
+ *     <li>Readers ({@link #searchChildrenFor(Object)}, {@link #deepSearchChildrenFor(Object)},
+ *     {@link #getChildren()} and rendering) never lock. The children of a node live in an
+ *     append-only array whose filled length is published after every insert, so a reader
+ *     always sees a consistent prefix of them.</li>
+ * </ul>
+ *
+ * <p>Once a node has more than a handful of children, they are also indexed by value in a
+ * {@link ConcurrentHashMap}, so looking one up stays constant-time.</p>
+ *
+ * @param <T> The type of the data stored in the tree.
+ * @author github@mrodz
+ * @see MTree
+ * @since 8
+ */
+public class ConcurrentMTree<T> {
+    /**
+     * Nodes with at most this many children are searched without a hash table.
+     */
+    private static final int LINEAR_SCAN_LIMIT = 8;
+
+    /**
+     * Claims a node for a parent, so that a node can only ever be inserted once.
+     */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<ConcurrentMTree, ConcurrentMTree> PARENT_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(ConcurrentMTree.class, ConcurrentMTree.class, "PARENT");
+
+    /**
+     * How {@link TreeRenderer} walks a tree. The count of a node's children is read
+     * before its child array, and the slots below that count are never written again,
+     * so every node contributes the children it had when the render reached it.
+     */
+    private static final TreeRenderer.Shape<ConcurrentMTree<?>> SHAPE = new TreeRenderer.Shape<ConcurrentMTree<?>>() {
+        @Override
+        public int childCount(ConcurrentMTree<?> node) {
+            return node.childCount;
+        }
+
+        @Override
+        public ConcurrentMTree<?> childAt(ConcurrentMTree<?> parent, int index, ConcurrentMTree<?> previous) {
+            return parent.CHILDREN[index];
+        }
+
+        @Override
+        public String label(ConcurrentMTree<?> node) {
+            return node.DATA.toString();
+        }
+    };
+
+    /**
+     * The actual value stored in this node of the tree.
+     */
+    private volatile T DATA;
+
+    /**
+     * The parent node to this instance. If this is the root node, its parent is {@code null}
+     */
+    private volatile ConcurrentMTree<T> PARENT;
+
+    /**
+     * The children to this node, in insertion order. Slots below {@link #childCount} are
+     * never written again; when the array fills up, it is replaced by a larger copy that
+     * is published before the count grows past the old length.
+     */
+    private volatile ConcurrentMTree<T>[] CHILDREN;
+
+    /**
+     * The amount of children to this node. Always read before {@link #CHILDREN}.
+     */
+    private volatile int childCount;
+
+    /**
+     * Maps the values associated with the children to this node to the children
+     * themselves, or {@code null} while there are no more than {@link #LINEAR_SCAN_LIMIT}
+     * of them.
+     */
+    private volatile Map<T, ConcurrentMTree<T>> childrenByValue;
+
+    /**
+     * Guards the children of this node against concurrent writers. The lock is private,
+     * so that code synchronizing on the node itself cannot hold up inserts.
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Specify whether or any special characters should be escaped when
+     * getting a fancy {@link String} version of the table (preferred: {@code true}).
+     * @see MTree#cancelEscapeSequences
+     */
+    private volatile boolean escapeCharacters = true;
+
+    //
+    // CONSTRUCTORS
+    //
+
+    /**
+     * Construct a new {@link ConcurrentMTree} with a specific starting node.
+     *
+     * @param startingNode the node to serve as this tree's root.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ConcurrentMTree(T startingNode) {
+        if (startingNode == null) throw new NullPointerException("Root Node cannot be null");
+        this.DATA = startingNode;
+        this.CHILDREN = new ConcurrentMTree[0];
+    }
+
+    //
+    // SPECIALIZED METHODS
+    //
+
+    /**
+     * Add pre-determined nodes to this node (varargs). The nodes are added under a single
+     * lock on this node, so they appear next to one another among its children.
+     *
+     * @param nodes the nodes to be added.
+     * @throws IllegalArgumentException if a node is a duplicate, or already belongs to a tree.
+     */
+    @SafeVarargs
+    public final void insert(ConcurrentMTree<T>... nodes) {
+        for (ConcurrentMTree<T> node : nodes) {
+            if (node == null) {
+                throw new NullPointerException("null input");
+            }
+        }
+        synchronized (lock) {
+            for (ConcurrentMTree<T> node : nodes) {
+                if (find(node.DATA) != null) {
+                    throw new IllegalArgumentException("Duplicate entry into tree: " + node);
+                }
+                MTree.requireNotAncestor(node, this, ancestor -> ancestor.PARENT);
+                if (!PARENT_UPDATER.compareAndSet(node, null, this)) {
+                    throw new IllegalArgumentException("Node already belongs to a tree: " + node);
+                }
+                addChild(node);
+            }
+        }
+    }
+
+    /**
+     * Create nodes to be added to this node from the raw input type (varargs).
+     *
+     * @param nodes the raw data to be added to this node.
+     */
+    @SafeVarargs
+    public final void insert(T... nodes) {
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ConcurrentMTree<T>[] nodes1 = new ConcurrentMTree[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            if (nodes[i] == null) {
+                throw new NullPointerException("null input");
+            }
+            nodes1[i] = new ConcurrentMTree<>(nodes[i]);
+        }
+
+        insert(nodes1);
+    }
+
+    /**
+     * Exclusively search the children that only span immediately from this node
+     * (ie. depth of one) for a node with a matching value. This method never blocks.
+     *
+     * @param data The object to be matched
+     * @return An {@link Optional} containing the node with the matching {@link #DATA}
+     * to the object supplied, if found; otherwise, {@link Optional#empty()}
+     */
+    public final Optional<ConcurrentMTree<T>> searchChildrenFor(final T data) {
+        return Optional.ofNullable(find(data));
+    }
+
+    /**
+     * Search <u>every</u> child connected to this node for a node with a matching value.
+     * This method will return the shallowest match exclusively, to avoid mix-ups, and never
+     * blocks. Nodes inserted while the search runs may or may not be seen.
+     *
+     * @param data The object to be matched
+     * @return An {@link Optional} containing the node with the matching {@link #DATA}
+     * to the object supplied, if found; otherwise, {@link Optional#empty()}
+     */
+    public final Optional<ConcurrentMTree<T>> deepSearchChildrenFor(final T data) {
+        if (Objects.equals(this.DATA, data)) {
+            return Optional.of(this);
+        }
+
+        // Breadth-first, so the first child index hit is the shallowest match
+        ArrayDeque<ConcurrentMTree<T>> pending = new ArrayDeque<>();
+        pending.add(this);
+        while (!pending.isEmpty()) {
+            ConcurrentMTree<T> current = pending.poll();
+            ConcurrentMTree<T> match = current.find(data);
+            if (match != null) {
+                return Optional.of(match);
+            }
+            int count = current.childCount;
+            ConcurrentMTree<T>[] children = current.CHILDREN;
+            for (int i = 0; i < count; i++) {
+                pending.add(children[i]);
+            }
+        }
+
+        // Cannot find value
+        return Optional.empty();
+    }
+
+    /**
+     * Write this tree's content to an {@link Appendable}, in the same format as
+     * {@link MTree#render(Appendable)}. Rendering never blocks; every node contributes
+     * the children it had when the traversal reached it.
+     *
+     * @param out where to write the tree.
+     * @throws IOException if {@code out} does.
+     */
+    public void render(Appendable out) throws IOException {
+        TreeRenderer.render(this, SHAPE, this.escapeCharacters, out);
+    }
+
+    /**
+     * Print this tree's content in a natural, easy to follow manner.
+     *
+     * @see #render(Appendable)
+     */
+    public void print() {
+        TreeRenderer.print(this, SHAPE, this.escapeCharacters);
+    }
+
+    /**
+     * Get this tree's content in a fancy format.
+     *
+     * @return a large formatted {@link String}
+     * @see #print()
+     */
+    public String getFancyString() {
+        return TreeRenderer.fancyString(this, SHAPE, this.escapeCharacters);
+    }
+
+    //
+    // CHILD INDEX
+    //
+
+    /**
+     * Set a node as this tree's child. Callers must hold {@link #lock}.
+     *
+     * @param child the node
+     */
+    private void addChild(ConcurrentMTree<T> child) {
+        int count = this.childCount;
+        ConcurrentMTree<T>[] children = this.CHILDREN;
+        if (count == children.length) {
+            children = Arrays.copyOf(children, Math.max(4, count + (count >> 1)));
+            children[count] = child;
+            this.CHILDREN = children;
+        } else {
+            children[count] = child;
+        }
+
+        Map<T, ConcurrentMTree<T>> index = this.childrenByValue;
+        if (index != null) {
+            index.put(child.DATA, child);
+        } else if (count + 1 > LINEAR_SCAN_LIMIT) {
+            index = new ConcurrentHashMap<>();
+            for (int i = 0; i <= count; i++) {
+                index.put(children[i].DATA, children[i]);
+            }
+            this.childrenByValue = index;
+        }
+
+        // Publishes the slot written above to readers
+        this.childCount = count + 1;
+    }
+
+    /**
+     * @return the child holding a value, or {@code null}.
+     */
+    private ConcurrentMTree<T> find(T data) {
+        Map<T, ConcurrentMTree<T>> index = this.childrenByValue;
+        if (index != null) {
+            return index.get(data);
+        }
+
+        int count = this.childCount;
+        ConcurrentMTree<T>[] children = this.CHILDREN;
+        for (int i = 0; i < count; i++) {
+            if (children[i].DATA.equals(data)) {
+                return children[i];
+            }
+        }
+        return null;
+    }
+
+    //
+    // GETTERS + SETTERS
+    //
+
+    /**
+     * Get the Nth child to this node.
+     *
+     * @param index an {@code int} index
+     * @return the {@link ConcurrentMTree} node at the specified index.
+     * @throws IndexOutOfBoundsException if the index supplied is greater than the total amount
+     *                                   of child nodes connected to this node, or less than zero.
+     */
+    public ConcurrentMTree<T> getNode(int index) throws IndexOutOfBoundsException {
+        int count = this.childCount;
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        return this.CHILDREN[index];
+    }
+
+    /**
+     * Get the actual value stored in this node.
+     *
+     * @return the data
+     */
+    public T getNodeValue() {
+        return DATA;
+    }
+
+    /**
+     * Update the actual value stored in this node, under the lock of its parent.
+     *
+     * @param data the data
+     * @throws IllegalArgumentException if a sibling to this node already holds the value.
+     */
+    public void setNodeValue(T data) {
+        if (data == null) throw new NullPointerException("null input");
+        ConcurrentMTree<T> parent = this.PARENT;
+        if (parent == null) {
+            this.DATA = data;
+            return;
+        }
+
+        synchronized (parent.lock) {
+            if (this.DATA.equals(data)) {
+                return;
+            } else if (parent.find(data) != null) {
+                throw new IllegalArgumentException("Duplicate entry into tree: " + data);
+            }
+            Map<T, ConcurrentMTree<T>> index = parent.childrenByValue;
+            if (index != null) {
+                // Keep the node reachable under one of its values throughout
+                index.put(data, this);
+                index.remove(this.DATA);
+            }
+            this.DATA = data;
+        }
+    }
+
+    /**
+     * Get this node's parent.
+     *
+     * @return the parent.
+     */
+    public ConcurrentMTree<T> getParent() {
+        return PARENT;
+    }
+
+    /**
+     * Get a snapshot of the children to this node as a read-only {@link List}. Children
+     * inserted afterwards do not appear in it.
+     *
+     * @return the children
+     */
+    public List<ConcurrentMTree<T>> getChildren() {
+        int count = this.childCount;
+        return Collections.unmodifiableList(Arrays.asList(this.CHILDREN).subList(0, count));
+    }
+
+    /**
+     * Get whether this instance of {@link ConcurrentMTree} is escaping character
+     * sequences in pretty Strings.
+     *
+     * @return whether it is or is not
+     */
+    public boolean isEscapingCharacters() {
+        return escapeCharacters;
+    }
+
+    /**
+     * Set whether this instance of {@link ConcurrentMTree} is escaping character
+     * sequences in pretty Strings.
+     *
+     * @param escapeCharacters the value
+     */
+    public void setEscapingCharacters(boolean escapeCharacters) {
+        this.escapeCharacters = escapeCharacters;
+    }
+
+    //
+    // OVERRIDES
+    //
+
+    /**
+     * Provides a compacted representation of this table. For a prettier visualization,
+     * see {@link #print()}
+     *
+     * @return a {@link String} object containing this node's value and its children.
+     */
+    @Override
+    public String toString() {
+        return String.format("%s{DATA=%s, CHILDREN=%s}", this.getClass().getSimpleName(), DATA, getChildren());
+    }
+}
@@ -0,0 +1,653 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * <p>An immutable, succinct snapshot of an {@link MTree}, taken by {@link MTree#freeze()}
+ * and meant for keeping very large trees resident. The shape of the tree is stored as a
+ * LOUDS bit string (level-order unary degree sequence) of a little over two bits per
+ * node, and parents, children and siblings are found through {@code select} queries on
+ * it rather than through references.</p>
+ *
+ * <p>Nodes are numbered in breadth-first order. Node {@code i} is written as its amount
+ * of children in ones, followed by a zero, after a leading {@code "10"} standing for a
+ * parent to the root. The one standing for node {@code i} is then the {@code i}th one of
+ * the string, and its children start right after the {@code i}th zero, which is all
+ * the navigation needs.</p>
+ *
+ * <p>Values are kept apart from the structure: every distinct value is stored once, in
+ * a dictionary sorted by hash, and every node holds the position of its value in the
+ * dictionary, packed in as few bits as the dictionary needs. Searches look a value up
+ * in the dictionary once and compare positions from then on.</p>
+ * <p><pre>
+ *     FrozenMTree&lt;String&gt; frozen = tree.freeze();
+ *     frozen.root().deepSearchChildrenFor("Python").ifPresent(FrozenMTree.Node::print);
+ * </pre></p>
+ *
+ * <p>A frozen tree never changes, whatever happens to the tree it was taken from, and
+ * may be read from any amount of threads.</p>
+ *
+ * @param <T> The type of the data stored in the tree.
+ * @author github@mrodz
+ * @see MTree#freeze()
+ * @see MTreeArena
+ * @since 8
+ */
+public class FrozenMTree<T> {
+    /**
+     * Marks the absence of a node.
+     */
+    private static final int NONE = -1;
+
+    /**
+     * The largest amount of nodes a frozen tree can hold, so that the positions of its
+     * bit string fit in an {@code int}.
+     */
+    private static final int MAX_SIZE = (Integer.MAX_VALUE - 64) / 2;
+
+    /**
+     * The shape of the tree, in LOUDS order.
+     */
+    private final Bits shape;
+
+    /**
+     * Every distinct value of the tree, sorted by hash.
+     */
+    private final Object[] dictionary;
+
+    /**
+     * The position in {@link #dictionary} of the value of every node, {@link #width}
+     * bits apiece.
+     */
+    private final long[] codes;
+
+    /**
+     * The amount of bits taken by every entry of {@link #codes}.
+     */
+    private final int width;
+
+    /**
+     * The amount of nodes in the tree.
+     */
+    private final int size;
+
+    /**
+     * Specify whether or any special characters should be escaped when
+     * getting a fancy {@link String} version of the table (preferred: {@code true}).
+     * @see MTree#cancelEscapeSequences
+     */
+    private volatile boolean escapeCharacters = true;
+
+    /**
+     * How {@link TreeRenderer} walks the bit string, one node index at a time. The
+     * children of a node are consecutive, so each one is found from the one before it.
+     */
+    private final TreeRenderer.Shape<Integer> renderShape = new TreeRenderer.Shape<Integer>() {
+        @Override
+        public int childCount(Integer node) {
+            return degreeOf(node);
+        }
+
+        @Override
+        public Integer childAt(Integer parent, int index, Integer previous) {
+            return previous == null ? childStartOf(parent) : previous + 1;
+        }
+
+        @Override
+        public String label(Integer node) {
+            return dictionary[codeOf(node)].toString();
+        }
+    };
+
+    //
+    // CONSTRUCTORS
+    //
+
+    private FrozenMTree(Bits shape, Object[] dictionary, long[] codes, int width, int size) {
+        this.shape = shape;
+        this.dictionary = dictionary;
+        this.codes = codes;
+        this.width = width;
+        this.size = size;
+    }
+
+    /**
+     * Take a snapshot of an {@link MTree}, preserving the order of every node's children.
+     *
+     * @param tree the tree to copy.
+     * @param <R>  The type of the data stored in the tree.
+     * @return the frozen tree.
+     * @throws IllegalArgumentException if the tree holds more than around a billion nodes.
+     * @see MTree#freeze()
+     */
+    public static <R> FrozenMTree<R> copyOf(MTree<R> tree) {
+        if (tree.size() > MAX_SIZE) {
+            throw new IllegalArgumentException("Tree too large: " + tree.size());
+        }
+        int n = (int) tree.size();
+
+        long[] words = new long[(2 * n + 1 + 63) >>> 6];
+        words[0] = 1L;
+        int position = 2;
+
+        // Number distinct values as they are met, and sort them by hash afterwards
+        Map<R, Integer> distinct = new HashMap<>();
+        List<R> values = new ArrayList<>();
+        int[] found = new int[n];
+
+        ArrayDeque<MTree<R>> pending = new ArrayDeque<>();
+        pending.add(tree);
+        for (int i = 0; i < n; i++) {
+            MTree<R> node = pending.poll();
+            R value = node.getNodeValue();
+            Integer code = distinct.get(value);
+            if (code == null) {
+                code = values.size();
+                distinct.put(value, code);
+                values.add(value);
+            }
+            found[i] = code;
+
+            List<MTree<R>> children = node.getChildren();
+            for (int j = 0; j < children.size(); j++, position++) {
+                words[position >>> 6] |= 1L << position;
+            }
+            position++;
+            pending.addAll(children);
+        }
+
+        long[] order = new long[values.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = (long) values.get(i).hashCode() << 32 | i;
+        }
+        Arrays.sort(order);
+        Object[] dictionary = new Object[order.length];
+        int[] renumber = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            int code = (int) order[i];
+            dictionary[i] = values.get(code);
+            renumber[code] = i;
+        }
+
+        int width = Math.max(1, 32 - Integer.numberOfLeadingZeros(dictionary.length - 1));
+        long[] codes = new long[(int) (((long) n * width + 63) >>> 6) + 1];
+        for (int i = 0; i < n; i++) {
+            long bit = (long) i * width;
+            long code = renumber[found[i]];
+            int word = (int) (bit >>> 6), offset = (int) (bit & 63);
+            codes[word] |= code << offset;
+            if (offset + width > 64) {
+                codes[word + 1] |= code >>> (64 - offset);
+            }
+        }
+
+        return new FrozenMTree<>(new Bits(words, 2 * n + 1), dictionary, codes, width, n);
+    }
+
+    //
+    // NAVIGATION
+    //
+
+    /**
+     * @return the position in {@link #dictionary} of the value of a node.
+     */
+    private int codeOf(int node) {
+        long bit = (long) node * width;
+        int word = (int) (bit >>> 6), offset = (int) (bit & 63);
+        long code = codes[word] >>> offset;
+        if (offset + width > 64) {
+            code |= codes[word + 1] << (64 - offset);
+        }
+        return (int) (code & ((1L << width) - 1));
+    }
+
+    /**
+     * Find a value in the dictionary.
+     *
+     * @return its position, or {@link #NONE} if no node holds the value.
+     */
+    private int lookup(Object value) {
+        if (value == null) {
+            return NONE;
+        }
+        int hash = value.hashCode();
+        int lo = 0, hi = dictionary.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (dictionary[mid].hashCode() < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (; lo < dictionary.length && dictionary[lo].hashCode() == hash; lo++) {
+            if (dictionary[lo].equals(value)) {
+                return lo;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @return the index of the first child of a node, whether or not it has any.
+     */
+    private int childStartOf(int node) {
+        // The ones before the children of a node are the nodes before them
+        return shape.select0(node) - node;
+    }
+
+    /**
+     * @return the amount of children to a node.
+     */
+    private int degreeOf(int node) {
+        return shape.select0(node + 1) - shape.select0(node) - 1;
+    }
+
+    /**
+     * @return the index of the first child of a node, or {@link #NONE}.
+     */
+    private int firstChildOf(int node) {
+        int zero = shape.select0(node);
+        return shape.get(zero + 1) ? zero - node : NONE;
+    }
+
+    /**
+     * @return the index of the sibling following a node, or {@link #NONE}.
+     */
+    private int nextSiblingOf(int node) {
+        return node != 0 && shape.get(shape.select1(node) + 1) ? node + 1 : NONE;
+    }
+
+    /**
+     * @return the index of the parent of a node other than the root.
+     */
+    private int parentOf(int node) {
+        // The zeros before the one standing for a node close the nodes before its parent
+        return shape.select1(node) - node - 1;
+    }
+
+    //
+    // GETTERS + SETTERS
+    //
+
+    /**
+     * Get the root of this tree.
+     *
+     * @return a handle to the root node.
+     */
+    public Node root() {
+        return new Node(0);
+    }
+
+    /**
+     * Get the amount of nodes in this tree.
+     *
+     * @return the amount of nodes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get whether this instance of {@link FrozenMTree} is escaping character
+     * sequences in pretty Strings.
+     *
+     * @return whether it is or is not
+     */
+    public boolean isEscapingCharacters() {
+        return escapeCharacters;
+    }
+
+    /**
+     * Set whether this instance of {@link FrozenMTree} is escaping character
+     * sequences in pretty Strings.
+     *
+     * @param escapeCharacters the value
+     */
+    public void setEscapingCharacters(boolean escapeCharacters) {
+        this.escapeCharacters = escapeCharacters;
+    }
+
+    /**
+     * A handle to a single node of a {@link FrozenMTree}. Handles hold no state of their
+     * own besides the index of the node, so they are cheap to create and two handles to
+     * the same node are {@link #equals(Object) equal}.
+     */
+    public final class Node {
+        /**
+         * The breadth-first index of this node.
+         */
+        private final int id;
+
+        private Node(int id) {
+            this.id = id;
+        }
+
+        /**
+         * Exclusively search the children that only span immediately from this node
+         * (ie. depth of one) for a node with a matching value.
+         *
+         * @param data The object to be matched
+         * @return An {@link Optional} containing the node with the matching value
+         * to the object supplied, if found; otherwise, {@link Optional#empty()}
+         */
+        public Optional<Node> searchChildrenFor(final T data) {
+            int code = lookup(data);
+            if (code != NONE) {
+                int start = childStartOf(id);
+                for (int child = start, end = start + degreeOf(id); child < end; child++) {
+                    if (codeOf(child) == code) {
+                        return Optional.of(new Node(child));
+                    }
+                }
+            }
+            return Optional.empty();
+        }
+
+        /**
+         * Search <u>every</u> child connected to this node for a node with a matching value.
+         * This method will return the shallowest match exclusively, to avoid mix-ups.
+         *
+         * @param data The object to be matched
+         * @return An {@link Optional} containing the node with the matching value
+         * to the object supplied, if found; otherwise, {@link Optional#empty()}
+         * @see #find(Object, MTree.SearchOrder)
+         */
+        public Optional<Node> deepSearchChildrenFor(final T data) {
+            return find(data, MTree.SearchOrder.BREADTH_FIRST);
+        }
+
+        /**
+         * Search for an object in all of the nodes (children) spanning from this node,
+         * visiting them in the given order.
+         *
+         * <p>The nodes of every level below this one have consecutive indices, so a
+         * breadth-first search scans one range of value positions per level and keeps no
+         * queue. A depth-first search walks the tree through its parent and sibling links,
+         * in constant space.</p>
+         *
+         * @param data  The object to be matched
+         * @param order {@link MTree.SearchOrder#BREADTH_FIRST} for the shallowest match, or
+         *              {@link MTree.SearchOrder#DEPTH_FIRST} for the first match in preorder.
+         * @return An {@link Optional} containing the node with the matching value
+         * to the object supplied, if found; otherwise, {@link Optional#empty()}
+         */
+        public Optional<Node> find(final T data, MTree.SearchOrder order) {
+            int code = lookup(data);
+            if (code == NONE) {
+                return Optional.empty();
+            } else if (codeOf(id) == code) {
+                return Optional.of(this);
+            }
+
+            if (order == MTree.SearchOrder.BREADTH_FIRST) {
+                int from = childStartOf(id), to = childStartOf(id + 1);
+                while (from < to) {
+                    for (int node = from; node < to; node++) {
+                        if (codeOf(node) == code) {
+                            return Optional.of(new Node(node));
+                        }
+                    }
+                    // The children of a range of nodes are the range of the next level
+                    int next = childStartOf(from);
+                    to = childStartOf(to);
+                    from = next;
+                }
+            } else {
+                int node = firstChildOf(id);
+                while (node != NONE) {
+                    if (codeOf(node) == code) {
+                        return Optional.of(new Node(node));
+                    }
+                    int child = firstChildOf(node);
+                    if (child != NONE) {
+                        node = child;
+                        continue;
+                    }
+                    while (node != id && nextSiblingOf(node) == NONE) {
+                        node = parentOf(node);
+                    }
+                    node = node == id ? NONE : nextSiblingOf(node);
+                }
+            }
+
+            // Cannot find value
+            return Optional.empty();
+        }
+
+        /**
+         * Get the Nth child to this node.
+         *
+         * @param index an {@code int} index
+         * @return the node at the specified index.
+         * @throws IndexOutOfBoundsException if the index supplied is greater than the total amount
+         *                                   of child nodes connected to this node, or less than zero.
+         */
+        public Node getNode(int index) throws IndexOutOfBoundsException {
+            if (index < 0 || index >= degreeOf(id)) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            return new Node(childStartOf(id) + index);
+        }
+
+        /**
+         * Get the actual value stored in this node.
+         *
+         * @return the data
+         */
+        @SuppressWarnings("unchecked")
+        public T getNodeValue() {
+            return (T) dictionary[codeOf(id)];
+        }
+
+        /**
+         * Get this node's parent.
+         *
+         * @return the parent, or {@code null} if this is the root node.
+         */
+        public Node getParent() {
+            return id == 0 ? null : new Node(parentOf(id));
+        }
+
+        /**
+         * Get the children to this node as a {@link List}. The list is a copy,
+         * built on every call.
+         *
+         * @return the children
+         */
+        public List<Node> getChildren() {
+            int start = childStartOf(id), degree = degreeOf(id);
+            List<Node> children = new ArrayList<>(degree);
+            for (int child = start; child < start + degree; child++) {
+                children.add(new Node(child));
+            }
+            return children;
+        }
+
+        /**
+         * Write this node's content to an {@link Appendable}, in the same format as
+         * {@link MTree#render(Appendable)}. The traversal follows the child ranges of the
+         * bit string with an explicit stack, so it runs in constant call stack space at
+         * any depth.
+         *
+         * @param out where to write the tree.
+         * @throws IOException if {@code out} does.
+         */
+        public void render(Appendable out) throws IOException {
+            TreeRenderer.render(id, renderShape, escapeCharacters, out);
+        }
+
+        /**
+         * Print this node's content in a natural, easy to follow manner.
+         *
+         * @see #render(Appendable)
+         */
+        public void print() {
+            TreeRenderer.print(id, renderShape, escapeCharacters);
+        }
+
+        /**
+         * Get this node's content in a fancy format.
+         *
+         * @return a large formatted {@link String}
+         * @see #print()
+         */
+        public String getFancyString() {
+            return TreeRenderer.fancyString(id, renderShape, escapeCharacters);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FrozenMTree.Node)) return false;
+            FrozenMTree<?>.Node that = (FrozenMTree<?>.Node) o;
+            return id == that.id && tree() == that.tree();
+        }
+
+        private FrozenMTree<T> tree() {
+            return FrozenMTree.this;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(dictionary[codeOf(id)]);
+        }
+    }
+
+    /**
+     * A fixed bit string answering {@code select} queries, the position of the Nth one or
+     * zero, in close to constant time. The string is split into blocks of
+     * {@value #BLOCK_BITS} bits, each with the amount of ones before it; the block holding
+     * every {@value #SAMPLE}th one and zero is sampled, so a query starts from a nearby
+     * block, skips the few blocks after it, and counts bits word by word within its block.
+     * Both directories together add around a tenth to the size of the string.
+     */
+    private static final class Bits {
+        /**
+         * The amount of bits in a block, a whole amount of words.
+         */
+        private static final int BLOCK_BITS = 512;
+
+        /**
+         * How many ones, or zeros, lie between sampled blocks.
+         */
+        private static final int SAMPLE = 512;
+
+        /**
+         * The bits, lowest first; bits past {@link #length} are zero.
+         */
+        private final long[] words;
+
+        /**
+         * The amount of ones before every block, and in the whole string last.
+         */
+        private final int[] blockRanks;
+
+        /**
+         * The block holding every {@link #SAMPLE}th one.
+         */
+        private final int[] oneSamples;
+
+        /**
+         * The block holding every {@link #SAMPLE}th zero.
+         */
+        private final int[] zeroSamples;
+
+        Bits(long[] words, int length) {
+            this.words = words;
+            int blocks = (length + BLOCK_BITS - 1) / BLOCK_BITS;
+            int wordsPerBlock = BLOCK_BITS / 64;
+
+            this.blockRanks = new int[blocks + 1];
+            for (int b = 0; b < blocks; b++) {
+                int ones = 0;
+                for (int w = b * wordsPerBlock, end = Math.min(w + wordsPerBlock, words.length); w < end; w++) {
+                    ones += Long.bitCount(words[w]);
+                }
+                blockRanks[b + 1] = blockRanks[b] + ones;
+            }
+
+            int ones = blockRanks[blocks], zeros = length - ones;
+            this.oneSamples = new int[(ones + SAMPLE - 1) / SAMPLE];
+            this.zeroSamples = new int[(zeros + SAMPLE - 1) / SAMPLE];
+            for (int b = 0, one = 0, zero = 0; b < blocks; b++) {
+                for (; one < oneSamples.length && one * SAMPLE < blockRanks[b + 1]; one++) {
+                    oneSamples[one] = b;
+                }
+                for (; zero < zeroSamples.length && zero * SAMPLE < zerosBefore(b + 1); zero++) {
+                    zeroSamples[zero] = b;
+                }
+            }
+        }
+
+        /**
+         * @return the amount of zeros before a block, counting the zeros that pad the
+         * last block, which come after every real zero.
+         */
+        private int zerosBefore(int block) {
+            return block * BLOCK_BITS - blockRanks[block];
+        }
+
+        /**
+         * @return whether the bit at a position is set.
+         */
+        boolean get(int position) {
+            return (words[position >>> 6] & 1L << position) != 0;
+        }
+
+        /**
+         * @return the position of the one that has {@code n} ones before it.
+         */
+        int select1(int n) {
+            int b = oneSamples[n / SAMPLE];
+            while (blockRanks[b + 1] <= n) {
+                b++;
+            }
+            int remaining = n - blockRanks[b];
+            int w = b * (BLOCK_BITS / 64);
+            long word = words[w];
+            for (int count; (count = Long.bitCount(word)) <= remaining; word = words[++w]) {
+                remaining -= count;
+            }
+            return (w << 6) + selectInWord(word, remaining);
+        }
+
+        /**
+         * @return the position of the zero that has {@code n} zeros before it.
+         */
+        int select0(int n) {
+            int b = zeroSamples[n / SAMPLE];
+            while (zerosBefore(b + 1) <= n) {
+                b++;
+            }
+            int remaining = n - zerosBefore(b);
+            int w = b * (BLOCK_BITS / 64);
+            long word = ~words[w];
+            for (int count; (count = Long.bitCount(word)) <= remaining; word = ~words[++w]) {
+                remaining -= count;
+            }
+            return (w << 6) + selectInWord(word, remaining);
+        }
+
+        /**
+         * @return the position within a word of the set bit that has {@code n} set bits
+         * below it.
+         */
+        private static int selectInWord(long word, int n) {
+            for (; n > 0; n--) {
+                word &= word - 1;
+            }
+            return Long.numberOfTrailingZeros(word);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * <p>A specialization of {@link MTree} for {@code int} values, such as hierarchies of
+ * numeric ids. Node values are stored unboxed, and the children of a node are indexed
+ * by an open-addressing table keyed on the primitive value, so looking up a child by
+ * its id allocates nothing.</p>
+ *
+ * <p>Nodes with only a few children skip the table and scan their children directly,
+ * which is both smaller and faster at that size.</p>
+ *
+ * @author github@mrodz
+ * @see MTree
+ * @see LongMTree
+ * @since 8
+ */
+public class IntMTree extends PrimitiveMTree<IntMTree> {
+    /**
+     * Shared by every node without children.
+     */
+    private static final IntMTree[] NO_CHILDREN = {};
+
+    /**
+     * The actual value stored in this node of the tree.
+     */
+    private int DATA;
+
+    //
+    // CONSTRUCTORS
+    //
+
+    /**
+     * Construct a new {@link IntMTree} with a specific starting node.
+     *
+     * @param startingNode the value of this tree's root.
+     */
+    public IntMTree(int startingNode) {
+        this.DATA = startingNode;
+    }
+
+    //
+    // SPECIALIZED METHODS
+    //
+
+    /**
+     * Add pre-determined nodes to this node (varargs).
+     *
+     * @param nodes the nodes to be added.
+     */
+    public final void insert(IntMTree... nodes) {
+        insertNodes(nodes);
+    }
+
+    /**
+     * Create nodes to be added to this node from the raw input type (varargs).
+     *
+     * @param nodes the raw data to be added to this node.
+     */
+    public final void insert(int... nodes) {
+        for (int node : nodes) {
+            insertKey(node);
+        }
+    }
+
+    /**
+     * Exclusively search the children that only span immediately from this node
+     * (ie. depth of one) for a node with a matching value. This method does not allocate.
+     *
+     * @param data The value to be matched
+     * @return the node with the matching {@link #DATA}, or {@code null} if there is none.
+     */
+    public final IntMTree searchChildrenFor(final int data) {
+        return findChild(data);
+    }
+
+    /**
+     * Search <u>every</u> child connected to this node for a node with a matching value.
+     * This method will return the shallowest match exclusively, to avoid mix-ups.
+     *
+     * @param data The value to be matched
+     * @return the node with the matching {@link #DATA}, or {@code null} if there is none.
+     */
+    public final IntMTree deepSearchChildrenFor(final int data) {
+        return deepSearch(data);
+    }
+
+    //
+    // NODE TYPE
+    //
+
+    @Override
+    final long key() {
+        return DATA;
+    }
+
+    @Override
+    final void setKey(long key) {
+        this.DATA = (int) key;
+    }
+
+    @Override
+    final IntMTree self() {
+        return this;
+    }
+
+    @Override
+    final IntMTree[] noChildren() {
+        return NO_CHILDREN;
+    }
+
+    @Override
+    final IntMTree newNode(long key) {
+        return new IntMTree((int) key);
+    }
+
+    //
+    // GETTERS + SETTERS
+    //
+
+    /**
+     * Get the actual value stored in this node.
+     *
+     * @return the data
+     */
+    public int getNodeValue() {
+        return DATA;
+    }
+
+    /**
+     * Update the actual value stored in this node.
+     *
+     * @param data the data
+     * @throws IllegalArgumentException if a sibling to this node already holds the value.
+     */
+    public void setNodeValue(int data) {
+        setValue(data);
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * <p>A specialization of {@link MTree} for {@code long} values, such as hierarchies of
+ * numeric ids. Node values are stored unboxed, and the children of a node are indexed
+ * by an open-addressing table keyed on the primitive value, so looking up a child by
+ * its id allocates nothing.</p>
+ *
+ * <p>Nodes with only a few children skip the table and scan their children directly,
+ * which is both smaller and faster at that size.</p>
+ *
+ * @author github@mrodz
+ * @see MTree
+ * @see IntMTree
+ * @since 8
+ */
+public class LongMTree extends PrimitiveMTree<LongMTree> {
+    /**
+     * Shared by every node without children.
+     */
+    private static final LongMTree[] NO_CHILDREN = {};
+
+    /**
+     * The actual value stored in this node of the tree.
+     */
+    private long DATA;
+
+    //
+    // CONSTRUCTORS
+    //
+
+    /**
+     * Construct a new {@link LongMTree} with a specific starting node.
+     *
+     * @param startingNode the value of this tree's root.
+     */
+    public LongMTree(long startingNode) {
+        this.DATA = startingNode;
+    }
+
+    //
+    // SPECIALIZED METHODS
+    //
+
+    /**
+     * Add pre-determined nodes to this node (varargs).
+     *
+     * @param nodes the nodes to be added.
+     */
+    public final void insert(LongMTree... nodes) {
+        insertNodes(nodes);
+    }
+
+    /**
+     * Create nodes to be added to this node from the raw input type (varargs).
+     *
+     * @param nodes the raw data to be added to this node.
+     */
+    public final void insert(long... nodes) {
+        for (long node : nodes) {
+            insertKey(node);
+        }
+    }
+
+    /**
+     * Exclusively search the children that only span immediately from this node
+     * (ie. depth of one) for a node with a matching value. This method does not allocate.
+     *
+     * @param data The value to be matched
+     * @return the node with the matching {@link #DATA}, or {@code null} if there is none.
+     */
+    public final LongMTree searchChildrenFor(final long data) {
+        return findChild(data);
+    }
+
+    /**
+     * Search <u>every</u> child connected to this node for a node with a matching value.
+     * This method will return the shallowest match exclusively, to avoid mix-ups.
+     *
+     * @param data The value to be matched
+     * @return the node with the matching {@link #DATA}, or {@code null} if there is none.
+     */
+    public final LongMTree deepSearchChildrenFor(final long data) {
+        return deepSearch(data);
+    }
+
+    //
+    // NODE TYPE
+    //
+
+    @Override
+    final long key() {
+        return DATA;
+    }
+
+    @Override
+    final void setKey(long key) {
+        this.DATA = key;
+    }
+
+    @Override
+    final LongMTree self() {
+        return this;
+    }
+
+    @Override
+    final LongMTree[] noChildren() {
+        return NO_CHILDREN;
+    }
+
+    @Override
+    final LongMTree newNode(long key) {
+        return new LongMTree(key);
+    }
+
+    //
+    // GETTERS + SETTERS
+    //
+
+    /**
+     * Get the actual value stored in this node.
+     *
+     * @return the data
+     */
+    public long getNodeValue() {
+        return DATA;
+    }
+
+    /**
+     * Update the actual value stored in this node.
+     *
+     * @param data the data
+     * @throws IllegalArgumentException if a sibling to this node already holds the value.
+     */
+    public void setNodeValue(long data) {
+        setValue(data);
+    }
+}
@@ -1,14 +1,47 @@
 import java.util.ArrayList;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * <p>An implementation of a Tree Data Structure in Java. This class acts as both
@@ -78,17 +111,74 @@ public class MTree<T> {
     /**
      * An {@link ArrayList} containing all nodes that are children to this node.
      */
-    private final List<MTree<T>> CHILDREN = new ArrayList<>();
+    private final List<MTree<T>> CHILDREN;
 
     /**
-     * Used when printing the grid; ignore.
+     * Maps the values associated with the children to this node to the children
+     * themselves. Renaming a child moves its entry to the end of the map, so the order
+     * of the children is only ever read from {@link #CHILDREN}.
      */
-    private volatile boolean completed = false;
+    private final Map<T, MTree<T>> childrenByValue;
 
     /**
-     * Stores all of the values associated with the children to this node.
+     * Tree-wide lookup table shared by every node of an indexed tree, or {@code null}
+     * if the tree is not indexed.
+     * @see #setIndexed(boolean)
      */
-    private final Set<T> entries = new HashSet<>();
+    private volatile Index<T> index;
+
+    /**
+     * The amount of nodes in the subtree spanning from this node, itself included.
+     */
+    private long size = 1;
+
+    /**
+     * The amount of edges between this node and the deepest node spanning from it.
+     */
+    private int height;
+
+    /**
+     * The amount of edges between this node and the root of its tree.
+     */
+    private int depth;
+
+    /**
+     * The position of this node among its parent's {@link #CHILDREN}.
+     */
+    private int indexInParent;
+
+    /**
+     * Fenwick tree (1-based) over the subtree sizes of {@link #CHILDREN}, so that the
+     * nodes spanning from the first {@code i} children can be counted in logarithmic
+     * time; or {@code null} while there are no more than
+     * {@link #PREFIX_SUM_THRESHOLD} children, which are simply summed.
+     */
+    private long[] childSizes;
+
+    /**
+     * The cached lines of every node spanning from this one, or {@code null}.
+     * @see #setRenderCaching(boolean)
+     */
+    private volatile RenderBlock renderBlock;
+
+    /**
+     * Whether this subtree changed since it was last rendered with caching, meaning
+     * that cached blocks may be stale. The ancestors of a dirty node are dirty too, so
+     * marking a path dirty stops at the first node that already is.
+     */
+    private volatile boolean renderDirty = true;
+
+    /**
+     * The structural hash of this subtree, if {@link #hashValid}.
+     * @see #subtreeHash()
+     */
+    private volatile long hash;
+
+    /**
+     * Whether {@link #hash} is up to date. The ancestors of a node whose hash is stale
+     * have a stale hash too, so invalidating a path stops at the first stale node.
+     */
+    private volatile boolean hashValid;
 
     /**
      * These are the characters used to visualize the tree.
@@ -106,6 +196,65 @@ public class MTree<T> {
      */
     private boolean escapeCharacters = true;
 
+    /**
+     * Specify whether rendering this node reuses the lines cached for unchanged
+     * subtrees (preferred: {@code false}).
+     * @see #setRenderCaching(boolean)
+     */
+    private boolean renderCaching;
+
+    /**
+     * The smallest subtree, in nodes, that a parallel render hands to a separate task.
+     * @see #render(Appendable, ForkJoinPool)
+     */
+    private static final int PARALLEL_RENDER_THRESHOLD = 4096;
+
+    /**
+     * The smallest subtree, in nodes, that a parallel search splits across tasks.
+     * @see #parallelFind(Object, ForkJoinPool)
+     */
+    private static final int PARALLEL_SEARCH_THRESHOLD = 8192;
+
+    /**
+     * Nodes with more children than this keep prefix sums of their subtree sizes.
+     * @see #nodeAtPreorderIndex(long)
+     */
+    private static final int PREFIX_SUM_THRESHOLD = 16;
+
+    /**
+     * The smallest subtree, in nodes, whose rendered lines are cached on its own.
+     * Smaller subtrees are part of the block cached for their parent.
+     * @see #setRenderCaching(boolean)
+     */
+    private static final int RENDER_CACHE_THRESHOLD = 64;
+
+    /**
+     * The first four bytes of every tree written by {@link #writeTo(DataOutput, Codec)}.
+     */
+    private static final int FORMAT_MAGIC = 0x4D545245;
+
+    /**
+     * The version of the format written by {@link #writeTo(DataOutput, Codec)}.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The most entries that anything read from a stream is sized for up front, such as
+     * the children of a node read by {@link #readFrom(DataInput, Codec)}; anything
+     * larger grows as it is read.
+     */
+    private static final int MAX_PRESIZE = 1024;
+
+    /**
+     * The first four bytes of every patch written by {@link Patch#writeTo(DataOutput, Codec)}.
+     */
+    private static final int PATCH_MAGIC = 0x4D545044;
+
+    /**
+     * The version of the format written by {@link Patch#writeTo(DataOutput, Codec)}.
+     */
+    private static final int PATCH_VERSION = 1;
+
     /**
      * Whether or not to use Java's native tab (\t) for horizontal spacing.
      */
@@ -127,6 +276,8 @@ public class MTree<T> {
      */
     @Deprecated
     public MTree() {
+        this.CHILDREN = new ArrayList<>();
+        this.childrenByValue = new LinkedHashMap<>();
     }
 
     /**
@@ -135,8 +286,121 @@ public class MTree<T> {
      * @param startingNode the node to serve as this tree's root.
      */
     public MTree(T startingNode) {
+        this(startingNode, 0);
+    }
+
+    /**
+     * Construct a new {@link MTree} with a specific starting node, sized to hold a given
+     * amount of children before growing.
+     *
+     * @param startingNode     the node to serve as this tree's root.
+     * @param expectedChildren how many children the node is expected to hold, or {@code 0}
+     *                         to size its containers lazily.
+     */
+    private MTree(T startingNode, int expectedChildren) {
         if (startingNode == null) throw new NullPointerException("Root Node cannot be null");
         this.DATA = startingNode;
+        if (expectedChildren > 0) {
+            this.CHILDREN = new ArrayList<>(expectedChildren);
+            this.childrenByValue = new LinkedHashMap<>((int) (expectedChildren / 0.75f) + 1);
+        } else {
+            this.CHILDREN = new ArrayList<>();
+            this.childrenByValue = new LinkedHashMap<>();
+        }
+    }
+
+    /**
+     * Build a tree from paths such as {@code "a/b/c"}, where every segment names a node
+     * below the node named by the segment before it. Empty segments are ignored, so
+     * leading, trailing and doubled separators make no difference.
+     *
+     * @param root      the value of the root node, which every path starts below.
+     * @param paths     the paths.
+     * @param separator the separator between the segments of a path.
+     * @return the tree.
+     * @see #fromKeyPaths(Object, Stream, boolean)
+     */
+    public static MTree<String> fromPaths(String root, Stream<String> paths, String separator) {
+        return fromPaths(root, paths, separator, false);
+    }
+
+    /**
+     * Build a tree from paths such as {@code "a/b/c"}, where every segment names a node
+     * below the node named by the segment before it. Empty segments are ignored, so
+     * leading, trailing and doubled separators make no difference.
+     *
+     * @param root      the value of the root node, which every path starts below.
+     * @param paths     the paths.
+     * @param separator the separator between the segments of a path.
+     * @param parallel  whether to load separate top-level subtrees in parallel.
+     * @return the tree.
+     * @see #fromKeyPaths(Object, Stream, boolean)
+     */
+    public static MTree<String> fromPaths(String root, Stream<String> paths, String separator, boolean parallel) {
+        if (separator.isEmpty()) throw new IllegalArgumentException("Empty separator");
+        return fromKeyPaths(root, paths.map(path -> split(path, separator)), parallel);
+    }
+
+    /**
+     * Build a tree from key paths, where every key names a node below the node named by
+     * the key before it.
+     *
+     * @param root  the value of the root node, which every path starts below.
+     * @param paths the paths.
+     * @param <R>   The type of the data stored in the tree.
+     * @return the tree.
+     * @see #fromKeyPaths(Object, Stream, boolean)
+     */
+    public static <R> MTree<R> fromKeyPaths(R root, Stream<? extends List<? extends R>> paths) {
+        return fromKeyPaths(root, paths, false);
+    }
+
+    /**
+     * Build a tree from key paths, where every key names a node below the node named by
+     * the key before it. Children appear in the order they are first named.
+     *
+     * <p>Unlike a series of {@link #insert(Object[])} calls, the loader walks down from
+     * the deepest node it shares with the previous path, so input where related paths
+     * sit next to one another (such as sorted input) resolves each path in time
+     * proportional to the part that is new. When {@code parallel} is set, the paths are
+     * first partitioned by their top-level key, each partition is loaded on its own
+     * thread, and the root is sized to hold exactly the resulting subtrees. A sequential
+     * load reads the paths in a single pass, so no node's final child count is known when
+     * it is created, and child containers grow as needed.</p>
+     *
+     * @param root     the value of the root node, which every path starts below.
+     * @param paths    the paths.
+     * @param parallel whether to load separate top-level subtrees in parallel.
+     * @param <R>      The type of the data stored in the tree.
+     * @return the tree.
+     */
+    public static <R> MTree<R> fromKeyPaths(R root, Stream<? extends List<? extends R>> paths, boolean parallel) {
+        if (!parallel) {
+            PathLoader<R> loader = new PathLoader<>(new MTree<>(root));
+            paths.sequential().forEachOrdered(loader::load);
+            return loader.root;
+        }
+
+        Map<R, List<List<? extends R>>> partitions = paths
+                .<List<? extends R>>map(path -> path)
+                .filter(path -> !path.isEmpty())
+                .collect(Collectors.groupingBy(path -> Objects.requireNonNull(path.get(0), "null input"),
+                        LinkedHashMap::new, Collectors.toList()));
+        List<MTree<R>> subtrees = partitions.entrySet().parallelStream()
+                .map(partition -> {
+                    PathLoader<R> loader = new PathLoader<>(new MTree<>(partition.getKey()));
+                    for (List<? extends R> path : partition.getValue()) {
+                        loader.load(path.subList(1, path.size()));
+                    }
+                    return loader.root;
+                })
+                .collect(Collectors.toList());
+
+        MTree<R> tree = new MTree<>(root, subtrees.size());
+        for (MTree<R> subtree : subtrees) {
+            tree.addChild(subtree);
+        }
+        return tree;
     }
 
     //
@@ -154,12 +418,13 @@ public class MTree<T> {
             throw new NullPointerException("null input");
         }
         for (MTree<T> node : nodes) {
-            if (this.entries.contains(node.DATA)) {
+            if (this.childrenByValue.containsKey(node.DATA)) {
                 throw new IllegalArgumentException("Duplicate entry into tree: " + node);
+            } else if (node.PARENT != null) {
+                throw new IllegalArgumentException("Node already belongs to a tree: " + node);
             } else {
-                node.setParent(this);
+                requireNotAncestor(node, this, ancestor -> ancestor.PARENT);
                 this.addChild(node);
-                this.entries.add(node.DATA);
             }
         }
     }
@@ -184,6 +449,278 @@ public class MTree<T> {
         insert(nodes1);
     }
 
+    /**
+     * Add a pre-determined node to this node, at a position among its children.
+     *
+     * @param index where the node goes, from zero up to the amount of children.
+     * @param node  the node to be added.
+     * @throws IndexOutOfBoundsException if the index is negative, or greater than the
+     *                                   amount of children to this node.
+     */
+    public final void insert(int index, MTree<T> node) throws IndexOutOfBoundsException {
+        Objects.requireNonNull(node, "null input");
+        if (index < 0 || index > this.CHILDREN.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.CHILDREN.size());
+        } else if (this.childrenByValue.containsKey(node.DATA)) {
+            throw new IllegalArgumentException("Duplicate entry into tree: " + node);
+        } else if (node.PARENT != null) {
+            throw new IllegalArgumentException("Node already belongs to a tree: " + node);
+        }
+        requireNotAncestor(node, this, ancestor -> ancestor.PARENT);
+        this.addChild(node, index);
+    }
+
+    /**
+     * Detach the child holding a value from this node. The child keeps every node
+     * spanning from it, and becomes the root of its own tree.
+     *
+     * @param data The object to be matched
+     * @return An {@link Optional} containing the detached child, if found; otherwise,
+     * {@link Optional#empty()}
+     */
+    public final Optional<MTree<T>> remove(final T data) {
+        MTree<T> child = this.childrenByValue.get(data);
+        if (child != null) {
+            removeChild(child);
+        }
+        return Optional.ofNullable(child);
+    }
+
+    /**
+     * <p>Compute the edits that turn this subtree into {@code other}. Both trees are
+     * walked side by side from the top, and any pair of subtrees with the same
+     * {@link #subtreeHash()} is taken to be identical and skipped, so the work done
+     * depends on how much changed rather than on the size of the trees.</p>
+     *
+     * <p>Children are matched to each other by value. A child whose value is gone is
+     * renamed if a new value took its place, and removed otherwise; children that
+     * changed places are moved, and new values are inserted along with their
+     * subtrees. The edits address nodes by the values on the path to them, so the
+     * {@link Patch} can be {@link #apply(Patch) applied} to any copy of this tree.</p>
+     *
+     * @param other the tree to compare to.
+     * @return the edits, in the order they are to be applied.
+     */
+    public final Patch<T> diff(MTree<T> other) {
+        Objects.requireNonNull(other, "null input");
+        List<Edit<T>> edits = new ArrayList<>();
+        if (!Objects.equals(this.DATA, other.DATA)) {
+            edits.add(new Edit<>(Edit.Kind.UPDATE, Collections.emptyList(), -1, other.DATA, null));
+        }
+
+        // Pairs of nodes whose children differ, and the path to both
+        ArrayDeque<MTree<T>> from = new ArrayDeque<>();
+        ArrayDeque<MTree<T>> to = new ArrayDeque<>();
+        ArrayDeque<List<T>> paths = new ArrayDeque<>();
+        if (this.size != other.size || this.subtreeHash() != other.subtreeHash()) {
+            from.push(this);
+            to.push(other);
+            paths.push(Collections.emptyList());
+        }
+
+        while (!from.isEmpty()) {
+            MTree<T> source = from.pop();
+            MTree<T> target = to.pop();
+            List<T> path = paths.pop();
+            List<MTree<T>> sources = source.CHILDREN;
+            List<MTree<T>> targets = target.CHILDREN;
+
+            // Pair every target child with the source child it comes from, by value first,
+            // then by position for the values that were replaced
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            MTree<T>[] origin = new MTree[targets.size()];
+            for (int i = 0; i < targets.size(); i++) {
+                origin[i] = source.childrenByValue.get(targets.get(i).DATA);
+            }
+            boolean[] kept = new boolean[sources.size()];
+            for (int i = 0; i < sources.size(); i++) {
+                kept[i] = target.childrenByValue.containsKey(sources.get(i).DATA);
+            }
+            for (int i = 0; i < Math.min(targets.size(), sources.size()); i++) {
+                if (origin[i] == null && !kept[i]) {
+                    origin[i] = sources.get(i);
+                    kept[i] = true;
+                }
+            }
+
+            // The values of the source children, as they stand after every edit so far
+            List<T> current = new ArrayList<>(sources.size());
+            for (int i = 0; i < sources.size(); i++) {
+                MTree<T> child = sources.get(i);
+                if (!kept[i]) {
+                    edits.add(new Edit<>(Edit.Kind.REMOVE, childPath(path, child.DATA), current.size(), null, null));
+                } else {
+                    current.add(child.DATA);
+                }
+            }
+            for (int i = 0; i < targets.size(); i++) {
+                MTree<T> child = origin[i];
+                if (child != null && !Objects.equals(child.DATA, targets.get(i).DATA)) {
+                    edits.add(new Edit<>(Edit.Kind.UPDATE, childPath(path, child.DATA), -1, targets.get(i).DATA, null));
+                    current.set(current.indexOf(child.DATA), targets.get(i).DATA);
+                }
+            }
+
+            // Children along the longest run already in target order stay where they are
+            boolean[] stays = stationary(current, target, targets.size());
+            for (int i = 0; i < targets.size(); i++) {
+                MTree<T> child = targets.get(i);
+                if (origin[i] != null && stays[i]) continue;
+                if (origin[i] != null) {
+                    current.remove(child.DATA);
+                }
+                // Right after the sibling that precedes it in the target, which is in place by now
+                int position = i == 0 ? 0 : current.indexOf(targets.get(i - 1).DATA) + 1;
+                if (origin[i] == null) {
+                    edits.add(new Edit<>(Edit.Kind.INSERT, path, position, null, copyOf(child)));
+                } else {
+                    edits.add(new Edit<>(Edit.Kind.MOVE, childPath(path, child.DATA), position, null, null));
+                }
+                current.add(position, child.DATA);
+            }
+
+            for (int i = 0; i < targets.size(); i++) {
+                MTree<T> a = origin[i], b = targets.get(i);
+                if (a != null && (a.size != b.size || a.subtreeHash() != b.subtreeHash())) {
+                    from.push(a);
+                    to.push(b);
+                    paths.push(childPath(path, b.DATA));
+                }
+            }
+        }
+        return new Patch<>(edits);
+    }
+
+    /**
+     * Replay the edits computed by {@link #diff(MTree)} on this tree. Inserted subtrees
+     * are copied, so the same patch may be applied to several trees. Edits are applied
+     * one at a time: if one of them does not fit this tree, the ones before it remain.
+     *
+     * @param patch the edits to apply.
+     * @throws IllegalStateException if an edit refers to a node this tree does not have,
+     *                               or would leave two siblings holding the same value.
+     */
+    public final void apply(Patch<T> patch) {
+        for (Edit<T> edit : patch) {
+            MTree<T> node = this;
+            for (T key : edit.path) {
+                node = node.childrenByValue.get(key);
+                if (node == null) {
+                    throw new IllegalStateException("No node at " + edit.path + " for " + edit);
+                }
+            }
+
+            MTree<T> parent = node.PARENT;
+            switch (edit.kind) {
+                case INSERT:
+                    if (edit.index > node.CHILDREN.size() || node.childrenByValue.containsKey(edit.subtree.DATA)) {
+                        throw new IllegalStateException("Cannot apply " + edit);
+                    }
+                    node.addChild(copyOf(edit.subtree), edit.index);
+                    break;
+                case REMOVE:
+                    if (node == this) {
+                        throw new IllegalStateException("Cannot apply " + edit);
+                    }
+                    parent.removeChild(node);
+                    break;
+                case UPDATE:
+                    if (node != this && !Objects.equals(node.DATA, edit.value)
+                            && parent.childrenByValue.containsKey(edit.value)) {
+                        throw new IllegalStateException("Cannot apply " + edit);
+                    }
+                    node.setNodeValue(edit.value);
+                    break;
+                case MOVE:
+                    if (node == this || edit.index >= parent.CHILDREN.size()) {
+                        throw new IllegalStateException("Cannot apply " + edit);
+                    }
+                    parent.moveChild(node, edit.index);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Find the children that can stay in place when reordering {@code current} to match
+     * {@code targets}: the longest subsequence of {@code current} that is already in
+     * target order, found by patience sorting in {@code O(n log n)}.
+     *
+     * @param current the values of the children, in their current order.
+     * @param target  the node holding the children in the wanted order.
+     * @param count   the amount of children to {@code target}.
+     * @return for every child of {@code target}, whether it stays.
+     */
+    private static <T> boolean[] stationary(List<T> current, MTree<T> target, int count) {
+        int n = current.size();
+        int[] rank = new int[n];
+        for (int i = 0; i < n; i++) {
+            rank[i] = target.childrenByValue.get(current.get(i)).indexInParent;
+        }
+
+        // tails[k] holds the element ending the best run of length k + 1
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            int low = 0, high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (rank[tails[middle]] < rank[i]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            previous[i] = low == 0 ? -1 : tails[low - 1];
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+
+        boolean[] stays = new boolean[count];
+        for (int i = length == 0 ? -1 : tails[length - 1]; i >= 0; i = previous[i]) {
+            stays[rank[i]] = true;
+        }
+        return stays;
+    }
+
+    /**
+     * @return a new path, made of {@code path} followed by {@code key}.
+     */
+    private static <T> List<T> childPath(List<T> path, T key) {
+        List<T> result = new ArrayList<>(path.size() + 1);
+        result.addAll(path);
+        result.add(key);
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Copy the values and the shape of a subtree into a new tree.
+     *
+     * @param root the subtree to copy.
+     * @return the root of the copy.
+     */
+    private static <T> MTree<T> copyOf(MTree<T> root) {
+        MTree<T> copy = new MTree<>(root.DATA);
+        ArrayDeque<MTree<T>> originals = new ArrayDeque<>();
+        ArrayDeque<MTree<T>> copies = new ArrayDeque<>();
+        originals.push(root);
+        copies.push(copy);
+        while (!originals.isEmpty()) {
+            MTree<T> original = originals.pop();
+            MTree<T> parent = copies.pop();
+            for (MTree<T> child : original.CHILDREN) {
+                MTree<T> node = new MTree<>(child.DATA);
+                parent.addChild(node);
+                originals.push(child);
+                copies.push(node);
+            }
+        }
+        return copy;
+    }
+
     /**
      * Exclusively search the children that only span immediately from this node
      * (ie. depth of one) for a node with a matching value.
@@ -193,13 +730,7 @@ public class MTree<T> {
      * to the object supplied, if found; otherwise, {@link Optional#empty()}
      */
     public final Optional<MTree<T>> searchChildrenFor(final T data) {
-        if (!this.entries.contains(data)) {
-            return Optional.empty();
-        }
-
-        return Optional.ofNullable(this.CHILDREN.stream()
-                .filter(n -> n.DATA.equals(data))
-                .collect(Collectors.toList()).get(0));
+        return Optional.ofNullable(this.childrenByValue.get(data));
     }
 
     /**
@@ -212,13 +743,73 @@ public class MTree<T> {
      * @see MTree#find(Object, MTree)
      */
     public final Optional<MTree<T>> deepSearchChildrenFor(final T data) {
+        Index<T> index = this.index;
+        if (index != null) {
+            return Optional.ofNullable(index.shallowest(data, this));
+        }
         return MTree.find(data, this);
     }
 
     /**
-     * Recursive function to search for an object in all of the nodes (children)
-     * spanning from a specified target node. This method will return the shallowest match
-     * exclusively, to avoid mix-ups.
+     * Search <u>every</u> child connected to this node for many values at once, in a
+     * single breadth-first traversal. Each node visited has its children checked
+     * against the values not found yet, and the traversal stops as soon as every value
+     * is found. As with {@link #deepSearchChildrenFor(Object)}, the shallowest match to
+     * every value is the one returned.
+     *
+     * @param keys the values to be matched.
+     * @return a {@link Map} from every value found to the node holding it; values that
+     * could not be found are left out.
+     */
+    public final Map<T, MTree<T>> findAll(Collection<? extends T> keys) {
+        Map<T, MTree<T>> found = new HashMap<>();
+        Set<T> remaining = new HashSet<>(keys);
+        if (remaining.remove(this.DATA)) {
+            found.put(this.DATA, this);
+        }
+
+        Index<T> index = this.index;
+        if (index != null) {
+            for (T key : remaining) {
+                MTree<T> match = index.shallowest(key, this);
+                if (match != null) {
+                    found.put(key, match);
+                }
+            }
+            return found;
+        }
+
+        ArrayDeque<MTree<T>> pending = new ArrayDeque<>();
+        pending.add(this);
+        while (!remaining.isEmpty() && !pending.isEmpty()) {
+            MTree<T> current = pending.poll();
+            List<MTree<T>> children = current.CHILDREN;
+            // Probe whichever side is smaller: the child map, or the values left
+            if (remaining.size() < children.size()) {
+                for (Iterator<T> keyIterator = remaining.iterator(); keyIterator.hasNext(); ) {
+                    T key = keyIterator.next();
+                    MTree<T> match = current.childrenByValue.get(key);
+                    if (match != null) {
+                        found.put(key, match);
+                        keyIterator.remove();
+                    }
+                }
+            } else {
+                for (MTree<T> child : children) {
+                    if (remaining.remove(child.DATA)) {
+                        found.put(child.DATA, child);
+                    }
+                }
+            }
+            pending.addAll(children);
+        }
+        return found;
+    }
+
+    /**
+     * Search for an object in all of the nodes (children) spanning from a specified
+     * target node. This method will return the shallowest match exclusively, to avoid
+     * mix-ups; see {@link #find(Object, MTree, SearchOrder)} for the search itself.
      *
      * @param object The object
      * @param node   The parent node
@@ -230,275 +821,3075 @@ public class MTree<T> {
      * @see #searchChildrenFor(Object)
      */
     public static <R> Optional<MTree<R>> find(final R object, MTree<R> node) {
-        if (node.DATA.equals(object)) {
-            return Optional.of(node);
-        } else if (node.entries.contains(object)) {
-            Stream<MTree<R>> stream = node.CHILDREN.stream().filter(n -> n.DATA.equals(object));
-            List<MTree<R>> collected = stream.collect(Collectors.toList());
-            if (collected.size() != 1) {
-                throw new IllegalStateException("Multiple children to " + node + "have the same canonical value.");
-            }
-            return Optional.of(collected.get(0));
-        }
-
-        for (MTree<R> child : node.CHILDREN) {
-            Optional<MTree<R>> obj = find(object, child);
-            if (obj.isPresent()) {
-                return obj;
-            }
-        }
-
-        // Cannot find value
-        return Optional.empty();
+        return find(object, node, SearchOrder.BREADTH_FIRST);
     }
 
     /**
-     * Simple recursive tree traversal algorithm.
+     * Search for an object in all of the nodes (children) spanning from a specified
+     * target node, visiting them in the given order. The search is driven by a single
+     * array-backed deque rather than recursion, so it runs in constant stack space
+     * regardless of how deep the tree is.
      *
-     * @param res    Recursive field: to use, initialize a new {@link StringBuilder}
-     * @param init   This is the grid to be traversed.
-     * @param offset Recursive field, represents the amount of tab/spaces: to use, set to {@code 0}.
-     * @return a {@link String} containing a formatted tree, one that resembles the output from
-     * the {@code tree} command in the windows command line.
+     * @param object The object
+     * @param node   The parent node
+     * @param order  {@link SearchOrder#BREADTH_FIRST} for the shallowest match, or
+     *               {@link SearchOrder#DEPTH_FIRST} for the first match in preorder.
+     * @param <R>    The type of the returning {@link Optional}, the object being
+     *               searched for, and the type of the {@link #DATA} being stored
+     *               in the parent node.
+     * @return An {@link Optional} containing the node with the matching {@link #DATA}
+     * to the object supplied, if found; otherwise, {@link Optional#empty()}
      */
-    private String buildFormattedTree(StringBuilder res, MTree<T> init, int offset) {
-        List<MTree<T>> children = init.getChildren();
-
-        // No children exist; the node is the last node in this lineage
-        if (children.size() == 0) {
-            return "";
+    public static <R> Optional<MTree<R>> find(final R object, MTree<R> node, SearchOrder order) {
+        if (Objects.equals(node.DATA, object)) {
+            return Optional.of(node);
         }
 
-        // Go through each child
-        for (int i = 0; i < children.size(); i++) {
-            MTree<T> node = children.get(i);
-            MTree<T> temp = init;
-            StringBuilder str = new StringBuilder();
+        ArrayDeque<MTree<R>> pending = new ArrayDeque<>();
+        pending.add(node);
 
-            // Apply the cosmetic tabs and pipes
-            for (int j = 0; j < offset; j++) {
-                temp = temp.getParent();
-                str.append(MTree.USE_NATIVE_TAB ? '\t' : repeatCharacters.apply(MTree.REPLACEMENT_TAB_SPACES, ' '));
-                str.append(temp.completed ? ' ' : SPECIAL_CHARACTERS[0]);
+        if (order == SearchOrder.BREADTH_FIRST) {
+            // Every node of one level leaves the queue before any node of the next, so
+            // the first child map to hold the object belongs to the shallowest match.
+            while (!pending.isEmpty()) {
+                MTree<R> current = pending.poll();
+                MTree<R> match = current.childrenByValue.get(object);
+                if (match != null) {
+                    return Optional.of(match);
+                }
+                pending.addAll(current.CHILDREN);
             }
-
-            boolean isLastElement = i == children.size() - 1;
-
-            res.append(str.reverse());
-            res.append(isLastElement
-                    ? SPECIAL_CHARACTERS[1]
-                    : SPECIAL_CHARACTERS[2]).append(repeatCharacters.apply(2, SPECIAL_CHARACTERS[3]));
-
-            // is the node the last node to appear in the sequence (visually)
-            if (isLastElement) {
-                node.getParent().completed = true;
+        } else {
+            while (!pending.isEmpty()) {
+                MTree<R> current = pending.pop();
+                if (Objects.equals(current.DATA, object)) {
+                    return Optional.of(current);
+                }
+                List<MTree<R>> children = current.CHILDREN;
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    pending.push(children.get(i));
+                }
             }
-
-            res.append(' ').append(ln(this.escapeCharacters
-                    ? cancelEscapeSequences.apply(node.getNodeValue().toString())
-                    : node.getNodeValue()));
-
-            buildFormattedTree(res, node, offset + 1);
         }
 
-        // clear excess newline, return value
-        return res.substring(0, res.length() - 1);
+        // Cannot find value
+        return Optional.empty();
     }
 
     /**
-     * Print this tree's content in a natural, easy to follow manner.
+     * Search <u>every</u> child connected to this node for a node with a matching value,
+     * splitting the work across the {@link ForkJoinPool#commonPool() common pool}.
      *
-     * @see #buildFormattedTree(StringBuilder, MTree, int)
+     * @param data The object to be matched
+     * @return An {@link Optional} containing the node with the matching {@link #DATA}
+     * to the object supplied, if found; otherwise, {@link Optional#empty()}
+     * @see #parallelFind(Object, ForkJoinPool)
      */
-    public void print() {
-        System.out.println(this.getFancyString());
+    public final Optional<MTree<T>> parallelFind(final T data) {
+        return parallelFind(data, ForkJoinPool.commonPool());
     }
 
     /**
-     * Get this tree's content in a fancy format. Keep in mind that the
-     * style of the return value depends on the viewport, since smaller
-     * STDI/O's might not be able to a show the entirety of a long value 
-     * on a single line.
-     * 
-     * @return a large formatted {@link String}
-     * @see #print()
+     * Search <u>every</u> child connected to this node for a node with a matching value,
+     * splitting the work across {@code pool}. The result is the same as that of
+     * {@link #find(Object, MTree)}: the shallowest match, or the first one in breadth-first
+     * order among matches of equal depth.
+     *
+     * <p>Subtrees of at least {@value #PARALLEL_SEARCH_THRESHOLD} nodes get a task per
+     * child; smaller ones are searched sequentially. Once a match is found, tasks stop
+     * descending below its depth, since nothing deeper can take its place.</p>
+     *
+     * @param data The object to be matched
+     * @param pool the pool to search on.
+     * @return An {@link Optional} containing the node with the matching {@link #DATA}
+     * to the object supplied, if found; otherwise, {@link Optional#empty()}
      */
-    public String getFancyString() {
-        // Handle deprecated functionality: data = null
-        String str = this.DATA == null ? this.getClass().getSimpleName() + '@' + this.hashCode() : this.DATA.toString();
-        str += this.getChildren().size() == 0 ? "" : pln(buildFormattedTree(new StringBuilder(), this, 0));
-        return str;
+    public final Optional<MTree<T>> parallelFind(final T data, ForkJoinPool pool) {
+        if (Objects.equals(this.DATA, data)) {
+            return Optional.of(this);
+        }
+
+        Shallowest<T> best = new Shallowest<>();
+        pool.invoke(new FindTask<>(data, this, 0, best));
+        return Optional.ofNullable(best.node);
     }
 
     /**
-     * Set a node as this tree's child.
+     * Collect every node spanning from this node (inclusive) whose value matches a
+     * predicate, splitting the work across the {@link ForkJoinPool#commonPool() common pool}.
      *
-     * @param child the node
+     * @param predicate the test applied to the value of every node.
+     * @return the matching nodes, in preorder.
+     * @see #parallelFindAll(Predicate, ForkJoinPool)
      */
-    private void addChild(MTree<T> child) {
-        this.CHILDREN.add(child);
+    public final List<MTree<T>> parallelFindAll(Predicate<? super T> predicate) {
+        return parallelFindAll(predicate, ForkJoinPool.commonPool());
     }
 
-    //
-    // GETTERS + SETTERS
-    //
-
     /**
-     * Get the Nth child to this node.
+     * Collect every node spanning from this node (inclusive) whose value matches a
+     * predicate, splitting the work across {@code pool}. Subtrees of at least
+     * {@value #PARALLEL_SEARCH_THRESHOLD} nodes get a task per child; smaller ones are
+     * searched sequentially. The predicate may be called from several threads at once.
      *
-     * @param index an {@code int} index
-     * @return the {@link MTree} node at the specified index.
-     * @throws IndexOutOfBoundsException if the index supplied is greater than the total amount
-     *                                   of child nodes connected to this node, or less than zero.
+     * @param predicate the test applied to the value of every node.
+     * @param pool      the pool to search on.
+     * @return the matching nodes, in preorder.
      */
-    public MTree<T> getNode(int index) throws IndexOutOfBoundsException {
-        return CHILDREN.get(index);
+    public final List<MTree<T>> parallelFindAll(Predicate<? super T> predicate, ForkJoinPool pool) {
+        return pool.invoke(new FindAllTask<>(predicate, this));
     }
 
     /**
-     * Get the actual value stored in this node.
+     * Search this node and every node spanning from it for values matching a predicate.
+     * The result is a lazy {@link Stream}, in preorder: the tree is only walked as far as
+     * the stream is consumed, so operations such as {@link Stream#limit(long)} stop the
+     * walk early. The stream may be made {@link Stream#parallel() parallel}, in which
+     * case each worker is handed whole subtrees to search.
      *
-     * @return the data
+     * @param predicate the test applied to the value of every node.
+     * @return the matching nodes.
+     * @see #findAll(Predicate, Predicate)
      */
-    public T getNodeValue() {
-        return DATA;
+    public final Stream<MTree<T>> findAll(Predicate<? super T> predicate) {
+        return findAll(predicate, null);
     }
 
     /**
-     * Update the actual value stored in this node.
+     * Search this node and every node spanning from it for values matching a predicate,
+     * skipping every node whose value matches {@code prune}, along with all of its
+     * descendants. Pruned subtrees are never entered, so {@code prune} is what keeps a
+     * search within part of a large tree.
      *
-     * @param data the data
+     * @param predicate the test applied to the value of every node visited.
+     * @param prune     the test deciding which subtrees to skip, or {@code null} to skip
+     *                  none.
+     * @return the matching nodes, as a lazy {@link Stream} in preorder.
+     * @see #findAll(Predicate)
      */
-    public void setNodeValue(T data) {
-        this.DATA = data;
+    public final Stream<MTree<T>> findAll(Predicate<? super T> predicate, Predicate<? super T> prune) {
+        Objects.requireNonNull(predicate, "null input");
+        return StreamSupport.stream(new NodeSpliterator<>(this, prune), false)
+                .filter(node -> predicate.test(node.DATA));
     }
 
     /**
-     * Get this node's parent.
+     * Search this node and every node spanning from it for the first value, in preorder,
+     * matching a predicate. The search stops at the first match.
      *
-     * @return the parent.
+     * @param predicate the test applied to the value of every node.
+     * @return the first matching node, or {@link Optional#empty()} if there is none.
      */
-    public MTree<T> getParent() {
-        return PARENT;
+    public final Optional<MTree<T>> findFirst(Predicate<? super T> predicate) {
+        return findAll(predicate, null).findFirst();
     }
 
     /**
-     * Set this node's parent.
+     * Search this node and every node spanning from it for the first value, in preorder,
+     * matching a predicate, skipping every subtree whose root matches {@code prune}.
      *
-     * @param parent the parent.
+     * @param predicate the test applied to the value of every node visited.
+     * @param prune     the test deciding which subtrees to skip, or {@code null} to skip
+     *                  none.
+     * @return the first matching node, or {@link Optional#empty()} if there is none.
+     * @see #findAll(Predicate, Predicate)
      */
-    private void setParent(MTree<T> parent) {
-        this.PARENT = parent;
+    public final Optional<MTree<T>> findFirst(Predicate<? super T> predicate, Predicate<? super T> prune) {
+        return findAll(predicate, prune).findFirst();
     }
 
     /**
-     * Get the children to this node as a {@link List}.
+     * Write this tree's content to an {@link Appendable} in the same format as
+     * {@link #getFancyString()}. Each line is emitted exactly once, straight into
+     * {@code out}, so the tree is never materialized as a single {@link String}.
      *
-     * @return the children
+     * <p>All of the traversal state lives in the call itself, so any number of threads
+     * may render the same tree, or overlapping subtrees, at once, provided none of them
+     * modifies it in the meantime.</p>
+     *
+     * @param out where to write the tree.
+     * @throws IOException if {@code out} does.
+     * @see #render(Writer)
      */
-    public List<MTree<T>> getChildren() {
-        return CHILDREN;
+    public void render(Appendable out) throws IOException {
+        out.append(this.rootLabel());
+        Renderer<T> renderer = new Renderer<>(this.escapeCharacters, "");
+        if (this.renderCaching) {
+            renderer.cachedChildren(this).writeTo(out);
+        } else {
+            renderer.renderChildren(out, this);
+        }
     }
 
     /**
-     * Get the canonical values associated with all of the children to this node,
-     * of type {@code T}
+     * Write a window of this tree's formatted content: lines {@code fromLine} (inclusive)
+     * through {@code toLine} (exclusive) of what {@link #render(Appendable)} writes,
+     * where line zero is this node and line {@code i} is the node at
+     * {@link #nodeAtPreorderIndex(long) preorder index} {@code i}. The first line is
+     * located from the cached subtree sizes, and its indentation rebuilt from its
+     * ancestors, so the cost depends on the size of the window and the depth of the
+     * tree, not on how many lines come before it.
+     *
+     * <p>Lines are separated by {@code '\n'}, with no line break before the first or
+     * after the last, so consecutive windows joined by {@code '\n'} match the full
+     * render.</p>
      *
-     * @return {@link #entries}
+     * @param fromLine the first line to write.
+     * @param toLine   the line to stop before; clamped to {@link #size()}.
+     * @param out      where to write the lines.
+     * @throws IOException              if {@code out} does.
+     * @throws IllegalArgumentException if {@code fromLine} is negative, or greater than
+     *                                  {@code toLine}.
      */
-    public Set<T> getEntries() {
-        return entries;
-    }
+    public void renderRange(long fromLine, long toLine, Appendable out) throws IOException {
+        if (fromLine < 0 || fromLine > toLine) {
+            throw new IllegalArgumentException("Invalid range: [" + fromLine + ", " + toLine + ")");
+        }
+        long to = Math.min(toLine, this.size);
+        if (fromLine >= to) {
+            return;
+        }
+
+        long from = fromLine;
+        if (from == 0) {
+            out.append(this.rootLabel());
+            if (++from == to) {
+                return;
+            }
+        }
+        new Renderer<T>(this.escapeCharacters, "")
+                .renderRange(out, this, nodeAtPreorderIndex(from), to - from, fromLine != 0);
+    }
+
+    /**
+     * Write this tree's content to a {@link Writer}, buffering it if it is not
+     * buffered already. The writer is flushed, but not closed.
+     *
+     * @param out where to write the tree.
+     * @throws IOException if {@code out} does.
+     * @see #render(Appendable)
+     */
+    public void render(Writer out) throws IOException {
+        Writer buffered = out instanceof BufferedWriter ? out : new BufferedWriter(out);
+        render((Appendable) buffered);
+        buffered.flush();
+    }
+
+    /**
+     * Write this tree's content to an {@link Appendable}, rendering large sibling
+     * subtrees in parallel on {@code pool}. Their output is buffered, then written
+     * to {@code out} in order, so the result is identical to {@link #render(Appendable)}.
+     *
+     * @param out  where to write the tree.
+     * @param pool the pool to render on.
+     * @throws IOException if {@code out} does.
+     */
+    public void render(Appendable out, ForkJoinPool pool) throws IOException {
+        out.append(this.rootLabel());
+        for (CharSequence block : pool.invoke(new RenderTask<>(this.escapeCharacters, this, ""))) {
+            out.append(block);
+        }
+    }
+
+    /**
+     * Write this tree's content to an {@link Appendable}, expanding no more than the
+     * levels and children allowed by {@code options}. Every cut-off part is replaced by
+     * a single summary line, such as {@code └── … 12,345 more nodes}, counted from the
+     * cached subtree sizes, so the cost of the render depends on what is shown rather
+     * than on the size of the tree.
+     *
+     * @param out     where to write the tree.
+     * @param options the limits to render within.
+     * @throws IOException if {@code out} does.
+     * @see RenderOptions
+     */
+    public void render(Appendable out, RenderOptions options) throws IOException {
+        out.append(this.rootLabel());
+        new Renderer<T>(this.escapeCharacters, "").renderLimited(out, this, options);
+    }
+
+    /**
+     * @return the first line of a formatted tree.
+     */
+    private String rootLabel() {
+        // Handle deprecated functionality: data = null
+        return this.DATA == null ? this.getClass().getSimpleName() + '@' + this.hashCode() : this.DATA.toString();
+    }
+
+    /**
+     * Print this tree's content in a natural, easy to follow manner. The output is
+     * streamed through a buffer to {@link System#out}, in its charset.
+     *
+     * @see #render(Appendable)
+     */
+    public void print() {
+        Writer out = consoleWriter();
+        try {
+            render((Appendable) out);
+            out.write(System.lineSeparator());
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Print this tree's content, expanding no more than the levels and children
+     * allowed by {@code options}.
+     *
+     * @param options the limits to render within.
+     * @see #render(Appendable, RenderOptions)
+     */
+    public void print(RenderOptions options) {
+        Writer out = consoleWriter();
+        try {
+            render(out, options);
+            out.write(System.lineSeparator());
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Get this tree's content in a fancy format. Keep in mind that the
+     * style of the return value depends on the viewport, since smaller
+     * STDI/O's might not be able to a show the entirety of a long value 
+     * on a single line.
+     * 
+     * @return a large formatted {@link String}
+     * @see #print()
+     */
+    public String getFancyString() {
+        StringBuilder str = new StringBuilder();
+        try {
+            render(str);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return str.toString();
+    }
+
+    /**
+     * Get this tree's content in a fancy format, rendering large sibling
+     * subtrees in parallel on {@code pool}.
+     *
+     * @param pool the pool to render on.
+     * @return a large formatted {@link String}
+     * @see #render(Appendable, ForkJoinPool)
+     */
+    public String getFancyString(ForkJoinPool pool) {
+        StringBuilder str = new StringBuilder();
+        try {
+            render(str, pool);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return str.toString();
+    }
+
+    /**
+     * Get this tree's content in a fancy format, expanding no more than the levels
+     * and children allowed by {@code options}.
+     *
+     * @param options the limits to render within.
+     * @return a formatted {@link String}
+     * @see #render(Appendable, RenderOptions)
+     */
+    public String getFancyString(RenderOptions options) {
+        StringBuilder str = new StringBuilder();
+        try {
+            render(str, options);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return str.toString();
+    }
+
+    //
+    // SERIALIZATION
+    //
+
+    /**
+     * <p>Write this subtree in a compact binary format, which {@link #readFrom(DataInput, Codec)}
+     * turns back into an equal tree. Unlike {@link #toString()}, the format keeps the
+     * structure of the tree whatever the values look like.</p>
+     *
+     * <p>The format starts with a header (a magic number, a format version and the
+     * amount of nodes), followed by every node in preorder: its value, as written by
+     * {@code codec}, then the amount of children to it. Counts are variable-length
+     * integers, so most of them take a single byte. Nodes are written as they are
+     * visited, without buffering the tree.</p>
+     *
+     * @param out   where to write the tree.
+     * @param codec how to write the value of every node.
+     * @throws IOException if {@code out} or {@code codec} does.
+     */
+    public void writeTo(DataOutput out, Codec<? super T> codec) throws IOException {
+        out.writeInt(FORMAT_MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        Codec.writeVarLong(out, this.size);
+        for (Iterator<MTree<T>> nodes = preorder(); nodes.hasNext(); ) {
+            MTree<T> node = nodes.next();
+            codec.write(node.DATA, out);
+            Codec.writeVarLong(out, node.CHILDREN.size());
+        }
+    }
+
+    /**
+     * Write this subtree to a channel, in the format of {@link #writeTo(DataOutput, Codec)}.
+     * The channel is left open.
+     *
+     * @param channel where to write the tree.
+     * @param codec   how to write the value of every node.
+     * @throws IOException if {@code channel} or {@code codec} does.
+     */
+    public void writeTo(WritableByteChannel channel, Codec<? super T> codec) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        writeTo(out, codec);
+        out.flush();
+    }
+
+    /**
+     * Read a tree written by {@link #writeTo(DataOutput, Codec)}. Nodes are linked as they
+     * are read, and the sizes and heights kept by every node are filled in as its
+     * subtree is completed, so loading takes a single pass over the input.
+     *
+     * @param in    where to read the tree from.
+     * @param codec how to read the value of every node.
+     * @param <R>   The type of the data stored in the tree.
+     * @return the root of the tree.
+     * @throws IOException if {@code in} or {@code codec} does, or if the input is not a
+     *                     tree in a supported version of the format.
+     */
+    public static <R> MTree<R> readFrom(DataInput in, Codec<? extends R> codec) throws IOException {
+        if (in.readInt() != FORMAT_MAGIC) {
+            throw new IOException("Not a serialized MTree");
+        }
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported format version: " + version);
+        }
+        long expected = Codec.readVarLong(in);
+
+        // The nodes still being filled, and how many children each one is missing
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        MTree<R>[] path = new MTree[8];
+        int[] missing = new int[8];
+        int depth = -1;
+        MTree<R> root = null;
+        long count = 0;
+
+        do {
+            R value = codec.read(in);
+            long children = Codec.readVarLong(in);
+            if (value == null) {
+                throw new IOException("Null value at node " + count);
+            } else if (children < 0 || children > expected - count - 1) {
+                // Every child is a node still to be read
+                throw new IOException("Invalid child count at node " + count + ": " + children);
+            }
+            // Presized only up to a point, so that a corrupt count cannot exhaust the heap
+            MTree<R> node = new MTree<>(value, (int) Math.min(children, MAX_PRESIZE));
+            count++;
+
+            if (depth < 0) {
+                root = node;
+            } else {
+                MTree<R> parent = path[depth];
+                if (parent.childrenByValue.putIfAbsent(value, node) != null) {
+                    throw new IOException("Duplicate entry into tree: " + value);
+                }
+                node.setParent(parent);
+                node.depth = parent.depth + 1;
+                node.indexInParent = parent.CHILDREN.size();
+                parent.CHILDREN.add(node);
+                missing[depth]--;
+            }
+
+            if (children != 0) {
+                if (++depth == path.length) {
+                    path = Arrays.copyOf(path, depth << 1);
+                    missing = Arrays.copyOf(missing, depth << 1);
+                }
+                path[depth] = node;
+                missing[depth] = (int) children;
+                continue;
+            }
+
+            // Close every node whose last child was just read
+            while (depth >= 0 && missing[depth] == 0) {
+                MTree<R> parent = path[depth];
+                path[depth--] = null;
+                for (MTree<R> child : parent.CHILDREN) {
+                    parent.size += child.size;
+                    parent.height = Math.max(parent.height, child.height + 1);
+                }
+                parent.buildChildSizes();
+            }
+        } while (depth >= 0);
+
+        if (count != expected) {
+            throw new IOException("Expected " + expected + " nodes, read " + count);
+        }
+        return root;
+    }
+
+    /**
+     * Read a tree from a channel, in the format of {@link #writeTo(DataOutput, Codec)}.
+     * Input is read ahead in blocks, so bytes that follow the tree in the channel may
+     * be consumed. The channel is left open.
+     *
+     * @param channel where to read the tree from.
+     * @param codec   how to read the value of every node.
+     * @param <R>     The type of the data stored in the tree.
+     * @return the root of the tree.
+     * @throws IOException if {@code channel} or {@code codec} does, or if the input is not
+     *                     a tree in a supported version of the format.
+     */
+    public static <R> MTree<R> readFrom(ReadableByteChannel channel, Codec<? extends R> codec) throws IOException {
+        return readFrom(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16)), codec);
+    }
+
+    /**
+     * Take an immutable snapshot of this subtree, storing its shape in little over two
+     * bits per node and every distinct value once. The snapshot keeps the read methods
+     * of this class, and is not affected by later changes to this tree.
+     *
+     * @return the snapshot.
+     * @see FrozenMTree
+     */
+    public FrozenMTree<T> freeze() {
+        return FrozenMTree.copyOf(this);
+    }
+
+    //
+    // TRAVERSAL
+    //
+
+    /**
+     * Get a sequential {@link Stream} over this node and every node spanning from it,
+     * in preorder. Nodes are visited lazily, as the stream consumes them.
+     *
+     * @return the stream.
+     */
+    public Stream<MTree<T>> stream() {
+        return StreamSupport.stream(new NodeSpliterator<>(this), false);
+    }
+
+    /**
+     * Get a parallel {@link Stream} over this node and every node spanning from it. The
+     * underlying {@link Spliterator} splits the tree along subtree boundaries, so that
+     * every worker is handed whole subtrees to walk.
+     *
+     * @return the stream.
+     */
+    public Stream<MTree<T>> parallelStream() {
+        return StreamSupport.stream(new NodeSpliterator<>(this), true);
+    }
+
+    /**
+     * Iterate over this node and every node spanning from it, each parent before its
+     * children. The tree must not be modified while iterating.
+     *
+     * @return the iterator.
+     */
+    public Iterator<MTree<T>> preorder() {
+        return new NodeSpliterator<>(this);
+    }
+
+    /**
+     * Iterate over this node and every node spanning from it, each parent after its
+     * children. The tree must not be modified while iterating.
+     *
+     * @return the iterator.
+     */
+    public Iterator<MTree<T>> postorder() {
+        return new PostorderIterator<>(this);
+    }
+
+    /**
+     * Iterate over this node and every node spanning from it, one level at a time.
+     * The tree must not be modified while iterating.
+     *
+     * @return the iterator.
+     */
+    public Iterator<MTree<T>> levelOrder() {
+        return new LevelOrderIterator<>(this);
+    }
+
+    /**
+     * Get the node at a position in the preorder of this subtree, where this node is at
+     * position zero. Each level is resolved from the cached subtree sizes, so this
+     * method runs in time proportional to the depth of the node found (times the
+     * logarithm of the fanout along the way), rather than to {@code index}. Picking
+     * an index uniformly below {@link #size()} samples a node uniformly.
+     *
+     * @param index the position in preorder.
+     * @return the node.
+     * @throws IndexOutOfBoundsException if {@code index} is negative, or not less than
+     *                                   {@link #size()}.
+     * @see #preorderIndexOf(MTree)
+     */
+    public MTree<T> nodeAtPreorderIndex(long index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        MTree<T> node = this;
+        while (index > 0) {
+            // Skip the node itself, then every child subtree that ends before the index
+            index--;
+            List<MTree<T>> children = node.CHILDREN;
+            long[] sums = node.childSizes;
+            int i = 0;
+            if (sums == null) {
+                for (long skip; index >= (skip = children.get(i).size); i++) {
+                    index -= skip;
+                }
+            } else {
+                int count = children.size();
+                for (int step = Integer.highestOneBit(count); step > 0; step >>= 1) {
+                    if (i + step <= count && sums[i + step] <= index) {
+                        i += step;
+                        index -= sums[i];
+                    }
+                }
+            }
+            node = children.get(i);
+        }
+        return node;
+    }
+
+    /**
+     * Get the position of a node in the preorder of this subtree, where this node is at
+     * position zero. Runs in time proportional to the depth of {@code node} below this
+     * one (times the logarithm of the fanout along the way).
+     *
+     * @param node a node spanning from this one.
+     * @return the position in preorder, or {@code -1} if {@code node} does not span from
+     * this node.
+     * @see #nodeAtPreorderIndex(long)
+     */
+    public long preorderIndexOf(MTree<T> node) {
+        if (node.depth < this.depth) {
+            return -1;
+        }
+
+        long index = 0;
+        for (MTree<T> n = node; n != this; n = n.PARENT) {
+            MTree<T> parent = n.PARENT;
+            if (parent == null) {
+                return -1;
+            }
+            index += 1 + parent.sizeBefore(n.indexInParent);
+        }
+        return index;
+    }
+
+    /**
+     * Set a node as this tree's child. Callers are expected to have checked that the
+     * node is not a duplicate, and does not belong to a tree yet.
+     *
+     * @param child the node
+     */
+    private void addChild(MTree<T> child) {
+        addChild(child, this.CHILDREN.size());
+    }
+
+    /**
+     * Set a node as this tree's child, at a position among the other children. Callers
+     * are expected to have checked that the node is not a duplicate, and does not belong
+     * to a tree yet.
+     *
+     * @param child    the node
+     * @param position where the node goes, from zero up to the amount of children.
+     */
+    private void addChild(MTree<T> child, int position) {
+        invalidateRender();
+        invalidateHash();
+        child.setParent(this);
+        this.CHILDREN.add(position, child);
+        if (position == this.CHILDREN.size() - 1) {
+            child.indexInParent = position;
+            this.childrenByValue.put(child.DATA, child);
+            appendChildSize(child);
+        } else {
+            reindexChildren(position);
+        }
+        if (child.index != this.index) {
+            Index.adopt(child, this.index);
+        }
+
+        // Renumber the depths within the new subtree, then grow every ancestor to fit it
+        child.depth = this.depth + 1;
+        renumberDepths(child);
+
+        int height = child.height + 1;
+        MTree<T> node = child;
+        for (MTree<T> ancestor = this; ancestor != null; ancestor = ancestor.PARENT, height++) {
+            ancestor.size += child.size;
+            if (ancestor.height < height) {
+                ancestor.height = height;
+            }
+            // The parent already counted the child when adding it
+            if (ancestor.childSizes != null && node != child) {
+                ancestor.addChildSize(node.indexInParent, child.size);
+            }
+            node = ancestor;
+        }
+    }
+
+    /**
+     * Detach a child from this node, along with every node spanning from it. The child
+     * becomes the root of its own tree, and leaves this tree's index, if any.
+     *
+     * @param child the child.
+     */
+    private void removeChild(MTree<T> child) {
+        invalidateRender();
+        invalidateHash();
+        int position = child.indexInParent;
+        this.CHILDREN.remove(position);
+        this.childrenByValue.remove(child.DATA);
+        for (int i = position; i < this.CHILDREN.size(); i++) {
+            this.CHILDREN.get(i).indexInParent = i;
+        }
+        buildChildSizes();
+
+        // Shrink every ancestor, then lower the heights for as long as they change
+        MTree<T> node = this;
+        for (MTree<T> ancestor = this; ancestor != null; ancestor = ancestor.PARENT) {
+            ancestor.size -= child.size;
+            if (ancestor.childSizes != null && ancestor != this) {
+                ancestor.addChildSize(node.indexInParent, -child.size);
+            }
+            node = ancestor;
+        }
+        for (MTree<T> ancestor = this; ancestor != null; ancestor = ancestor.PARENT) {
+            int height = 0;
+            for (MTree<T> sibling : ancestor.CHILDREN) {
+                height = Math.max(height, sibling.height + 1);
+            }
+            if (height == ancestor.height) {
+                break;
+            }
+            ancestor.height = height;
+        }
+
+        child.setParent(null);
+        child.indexInParent = 0;
+        Index<T> index = child.index;
+        if (index != null) {
+            for (Iterator<MTree<T>> nodes = child.preorder(); nodes.hasNext(); ) {
+                index.remove(nodes.next());
+            }
+            Index.adopt(child, null);
+        }
+        child.depth = 0;
+        renumberDepths(child);
+    }
+
+    /**
+     * Move a child to another position among the children of this node.
+     *
+     * @param child    the child.
+     * @param position where the child goes, counted as if it had been taken out first.
+     */
+    private void moveChild(MTree<T> child, int position) {
+        invalidateRender();
+        invalidateHash();
+        int from = child.indexInParent;
+        this.CHILDREN.remove(from);
+        this.CHILDREN.add(position, child);
+        reindexChildren(Math.min(from, position));
+    }
+
+    /**
+     * Bring the bookkeeping of the children to this node up to date after some of them
+     * shifted: their positions from {@code from} on, the order of
+     * {@link #childrenByValue}, and the prefix sums of their sizes.
+     *
+     * @param from the first position that changed.
+     */
+    private void reindexChildren(int from) {
+        for (int i = from; i < this.CHILDREN.size(); i++) {
+            this.CHILDREN.get(i).indexInParent = i;
+        }
+        this.childrenByValue.clear();
+        for (MTree<T> child : this.CHILDREN) {
+            this.childrenByValue.put(child.DATA, child);
+        }
+        buildChildSizes();
+    }
+
+    /**
+     * Number the depths of every node spanning from {@code root}, from the depth of
+     * {@code root} itself.
+     */
+    private static <T> void renumberDepths(MTree<T> root) {
+        if (root.CHILDREN.isEmpty()) {
+            return;
+        }
+        ArrayDeque<MTree<T>> stack = new ArrayDeque<>(root.CHILDREN);
+        while (!stack.isEmpty()) {
+            MTree<T> node = stack.pop();
+            node.depth = node.PARENT.depth + 1;
+            for (MTree<T> grandchild : node.CHILDREN) {
+                stack.push(grandchild);
+            }
+        }
+    }
+
+    /**
+     * Mark this node and its ancestors as changed, dropping the lines cached for them.
+     */
+    private void invalidateRender() {
+        for (MTree<T> node = this; node != null && !node.renderDirty; node = node.PARENT) {
+            node.renderDirty = true;
+            node.renderBlock = null;
+        }
+    }
+
+    /**
+     * Mark the structural hash of this node and its ancestors as stale.
+     */
+    private void invalidateHash() {
+        for (MTree<T> node = this; node != null && node.hashValid; node = node.PARENT) {
+            node.hashValid = false;
+        }
+    }
+
+    /**
+     * Account for the subtree size of a child just added at the end of
+     * {@link #CHILDREN}, building the prefix sums once there are enough children.
+     *
+     * @param child the last child.
+     */
+    private void appendChildSize(MTree<T> child) {
+        int count = CHILDREN.size();
+        long[] sums = this.childSizes;
+        if (sums == null) {
+            buildChildSizes();
+            return;
+        }
+
+        if (count == sums.length) {
+            sums = Arrays.copyOf(sums, sums.length << 1);
+        }
+        // The new slot covers the last (count & -count) children, itself included
+        long sum = child.size;
+        for (int i = count - 1, start = count - (count & -count); i > start; i -= i & -i) {
+            sum += sums[i];
+        }
+        sums[count] = sum;
+        this.childSizes = sums;
+    }
+
+    /**
+     * Rebuild the prefix sums of the subtree sizes of {@link #CHILDREN} from scratch,
+     * or drop them if there are too few children to need them.
+     */
+    private void buildChildSizes() {
+        int count = CHILDREN.size();
+        if (count <= PREFIX_SUM_THRESHOLD) {
+            this.childSizes = null;
+            return;
+        }
+        long[] sums = new long[Integer.highestOneBit(count) << 1];
+        for (int i = 1; i <= count; i++) {
+            sums[i] += CHILDREN.get(i - 1).size;
+            int parent = i + (i & -i);
+            if (parent <= count) {
+                sums[parent] += sums[i];
+            }
+        }
+        this.childSizes = sums;
+    }
+
+    /**
+     * Grow the recorded subtree size of a child in the prefix sums.
+     *
+     * @param index the position of the child.
+     * @param delta the amount of nodes gained.
+     */
+    private void addChildSize(int index, long delta) {
+        long[] sums = this.childSizes;
+        int count = CHILDREN.size();
+        for (int i = index + 1; i <= count; i += i & -i) {
+            sums[i] += delta;
+        }
+    }
+
+    /**
+     * @return the amount of nodes spanning from the first {@code index} children.
+     */
+    private long sizeBefore(int index) {
+        long[] sums = this.childSizes;
+        long total = 0;
+        if (sums == null) {
+            for (int i = 0; i < index; i++) {
+                total += CHILDREN.get(i).size;
+            }
+        } else {
+            for (int i = index; i > 0; i -= i & -i) {
+                total += sums[i];
+            }
+        }
+        return total;
+    }
+
+    //
+    // GETTERS + SETTERS
+    //
+
+    /**
+     * Get the Nth child to this node.
+     *
+     * @param index an {@code int} index
+     * @return the {@link MTree} node at the specified index.
+     * @throws IndexOutOfBoundsException if the index supplied is greater than the total amount
+     *                                   of child nodes connected to this node, or less than zero.
+     */
+    public MTree<T> getNode(int index) throws IndexOutOfBoundsException {
+        return CHILDREN.get(index);
+    }
+
+    /**
+     * Get the actual value stored in this node.
+     *
+     * @return the data
+     */
+    public T getNodeValue() {
+        return DATA;
+    }
+
+    /**
+     * Update the actual value stored in this node.
+     *
+     * @param data the data
+     * @throws IllegalArgumentException if a sibling to this node already holds the value.
+     */
+    public void setNodeValue(T data) {
+        MTree<T> parent = this.PARENT;
+        if (parent != null && !Objects.equals(this.DATA, data)) {
+            if (parent.childrenByValue.containsKey(data)) {
+                throw new IllegalArgumentException("Duplicate entry into tree: " + data);
+            }
+            parent.childrenByValue.remove(this.DATA);
+            parent.childrenByValue.put(data, this);
+        }
+        if (parent != null) {
+            // This node's line belongs to the block cached for its parent
+            parent.invalidateRender();
+        }
+        invalidateHash();
+
+        Index<T> index = this.index;
+        if (index != null) {
+            index.remove(this);
+            this.DATA = data;
+            index.add(this);
+        } else {
+            this.DATA = data;
+        }
+    }
+
+    /**
+     * Get the amount of nodes in the subtree spanning from this node, itself included.
+     * The count is kept up to date as nodes are inserted, so this method does not
+     * traverse the tree.
+     *
+     * @return the amount of nodes.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Get the amount of edges on the longest path from this node down to a leaf. A
+     * node without children has a height of zero.
+     *
+     * @return the height.
+     */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Get the amount of edges between this node and the root of its tree. The root
+     * has a depth of zero.
+     *
+     * @return the depth.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Get a 64-bit hash of the structure of this subtree: the value of this node, and
+     * the values and order of every node spanning from it. Hashes are cached on every
+     * node and only recomputed along the paths changed by {@link #insert(MTree[])} and
+     * {@link #setNodeValue(Object)} since the last call, so this method is constant-time
+     * on an unchanged tree. The parent of this node plays no part in it.
+     *
+     * <p>Equal subtrees have equal hashes; unequal subtrees almost always have different
+     * ones. Changes made to node values themselves, rather than through
+     * {@link #setNodeValue(Object)}, are not noticed.</p>
+     *
+     * @return the hash.
+     * @see #equals(Object)
+     */
+    public long subtreeHash() {
+        if (hashValid) {
+            return hash;
+        }
+
+        // Postorder over the stale nodes only; valid hashes are never entered
+        ArrayDeque<MTree<T>> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            MTree<T> node = stack.peek();
+            boolean ready = true;
+            for (MTree<T> child : node.CHILDREN) {
+                if (!child.hashValid) {
+                    stack.push(child);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                long h = mix(Objects.hashCode(node.DATA));
+                for (MTree<T> child : node.CHILDREN) {
+                    h = h * 0x9E3779B97F4A7C15L + child.hash;
+                }
+                node.hash = mix(h + node.CHILDREN.size());
+                node.hashValid = true;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Get this node's parent.
+     *
+     * @return the parent.
+     */
+    public MTree<T> getParent() {
+        return PARENT;
+    }
+
+    /**
+     * Set this node's parent.
+     *
+     * @param parent the parent.
+     */
+    private void setParent(MTree<T> parent) {
+        this.PARENT = parent;
+    }
+
+    /**
+     * Get the children to this node as a {@link List}. The list is a read-only view,
+     * which follows later changes to this node; children are added and removed through
+     * {@link #insert(Object[])} and {@link #remove(Object)}, which keep the sizes, indices
+     * and caches of the tree up to date.
+     *
+     * @return the children
+     */
+    public List<MTree<T>> getChildren() {
+        return Collections.unmodifiableList(CHILDREN);
+    }
+
+    /**
+     * Get the canonical values associated with all of the children to this node,
+     * of type {@code T}, in insertion order. A renamed child keeps its place, as it
+     * does in {@link #getChildren()}.
+     *
+     * @return a read-only view of the values of {@link #CHILDREN}, whose lookups go
+     * through {@link #childrenByValue}
+     */
+    public Set<T> getEntries() {
+        return new AbstractSet<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                Iterator<MTree<T>> children = CHILDREN.iterator();
+                return new Iterator<T>() {
+                    @Override
+                    public boolean hasNext() {
+                        return children.hasNext();
+                    }
+
+                    @Override
+                    public T next() {
+                        return children.next().DATA;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return CHILDREN.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return childrenByValue.containsKey(o);
+            }
+        };
+    }
+
+    /**
+     * Get whether the tree this node belongs to keeps a tree-wide value index.
+     *
+     * @return whether it does or does not
+     * @see #setIndexed(boolean)
+     */
+    public boolean isIndexed() {
+        return index != null;
+    }
+
+    /**
+     * Set whether this tree keeps a tree-wide index from node values to nodes. While
+     * enabled, {@link #deepSearchChildrenFor(Object)} is a hash lookup followed by a
+     * walk up to the searched node, instead of a traversal of every child. The index is
+     * kept up to date by {@link #insert(MTree[])} and {@link #setNodeValue(Object)}, and
+     * costs one map entry per node.
+     *
+     * @param indexed the value
+     * @throws IllegalStateException if this node is not the root of its tree.
+     */
+    public void setIndexed(boolean indexed) {
+        if (this.PARENT != null) {
+            throw new IllegalStateException("Only the root of a tree can be indexed");
+        }
+        if (indexed != (this.index != null)) {
+            Index.adopt(this, indexed ? new Index<>() : null);
+        }
+    }
+
+    /**
+     * Get whether this instance of {@link MTree} is escaping character
+     * sequences in pretty Strings.
+     *
+     * @return whether it is or is not
+     */
+    public boolean isEscapingCharacters() {
+        return escapeCharacters;
+    }
+
+    /**
+     * Set whether this instance of {@link MTree} is escaping character
+     * sequences in pretty Strings.
+     *
+     * @param escapeCharacters the value
+     */
+    public void setEscapingCharacters(boolean escapeCharacters) {
+        this.escapeCharacters = escapeCharacters;
+    }
+
+    /**
+     * Get whether rendering this node reuses the lines cached for unchanged subtrees.
+     *
+     * @return whether it does or does not
+     * @see #setRenderCaching(boolean)
+     */
+    public boolean isRenderCaching() {
+        return renderCaching;
+    }
+
+    /**
+     * Set whether {@link #render(Appendable)}, and so {@link #print()} and
+     * {@link #getFancyString()}, called on this node keep the rendered lines of every
+     * subtree of at least {@value #RENDER_CACHE_THRESHOLD} nodes, keyed by the
+     * indentation they were rendered with. {@link #insert(MTree[])} and
+     * {@link #setNodeValue(Object)} drop the blocks along the path to the root, so the
+     * next render only rebuilds the subtrees that changed, and copies the rest.
+     *
+     * <p>Changes made to node values themselves, rather than through
+     * {@link #setNodeValue(Object)}, are not noticed. Disabling caching drops every
+     * block in this subtree.</p>
+     *
+     * @param renderCaching the value
+     */
+    public void setRenderCaching(boolean renderCaching) {
+        this.renderCaching = renderCaching;
+        if (!renderCaching) {
+            ArrayDeque<MTree<T>> stack = new ArrayDeque<>();
+            stack.push(this);
+            while (!stack.isEmpty()) {
+                MTree<T> node = stack.pop();
+                node.renderBlock = null;
+                for (MTree<T> child : node.CHILDREN) {
+                    stack.push(child);
+                }
+            }
+        }
+    }
+
+    //
+    // RESOURCES
+    //
+
+    /**
+     * Function that returns a {@link String} repeating a character (c) a certain amount of times (reps).
+     */
+    private static final BiFunction<Integer, Character, String> repeatCharacters = (reps, c) -> {
+        StringBuilder str = new StringBuilder();
+        for (int i = 0; i < reps; i++) {
+            str.append(c);
+        }
+        return str.toString();
+    };
+
+    /**
+     * Indentation following the pipe (or blank space) of every level of a formatted tree.
+     */
+    private static final String INDENT = MTree.USE_NATIVE_TAB ? "\t" : repeatCharacters.apply(MTree.REPLACEMENT_TAB_SPACES, ' ');
+
+    /**
+     * Indentation of one level whose ancestor still has siblings left to print.
+     */
+    static final String PIPE_SEGMENT = SPECIAL_CHARACTERS[0] + INDENT;
+
+    /**
+     * Indentation of one level whose ancestor was the last child to its parent.
+     */
+    static final String BLANK_SEGMENT = ' ' + INDENT;
+
+    /**
+     * Branch leading to any child but the last one of a node in a formatted tree.
+     */
+    static final String BRANCH = SPECIAL_CHARACTERS[2] + repeatCharacters.apply(2, SPECIAL_CHARACTERS[3]) + ' ';
+
+    /**
+     * Branch leading to the last child of a node in a formatted tree.
+     */
+    static final String LAST_BRANCH = SPECIAL_CHARACTERS[1] + repeatCharacters.apply(2, SPECIAL_CHARACTERS[3]) + ' ';
+
+    /**
+     * Low-level function that returns a {@link String} canceling most ['\n', '\t', '\r']
+     * of Java's escape characters. Strings without any of them are returned as is.
+     * @see #appendEscaped(CharSequence, Appendable)
+     */
+    public static final UnaryOperator<String> cancelEscapeSequences = (str) -> {
+        if (indexOfEscape(str, 0) < 0) {
+            return str;
+        }
+        StringBuilder res = new StringBuilder(str.length() + 8);
+        try {
+            appendEscaped(str, res);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
+        return res.toString();
+    };
+
+    /**
+     * Check that a node can be attached below another without closing a cycle, which
+     * would send every walk up or down the tree round it forever. Only the root of a tree
+     * can be attached, so the walk ends at the root of {@code parent}, after as many
+     * steps as {@code parent} is deep.
+     *
+     * @param node     the node to be attached.
+     * @param parent   the node it is to be attached below.
+     * @param parentOf how to step from a node to its parent, which is {@code null} at the root.
+     * @param <N>      The type of the nodes.
+     * @throws IllegalArgumentException if {@code node} is {@code parent}, or one of its ancestors.
+     */
+    static <N> void requireNotAncestor(N node, N parent, UnaryOperator<N> parentOf) {
+        for (N ancestor = parent; ancestor != null; ancestor = parentOf.apply(ancestor)) {
+            if (ancestor == node) {
+                throw new IllegalArgumentException("Node cannot be attached below itself: " + node);
+            }
+        }
+    }
+
+    /**
+     * Get a buffered {@link Writer} over {@link System#out}, used by the {@code print}
+     * methods of every tree. Text is handed to {@link PrintStream#print(String)}, so it is
+     * encoded with the charset of {@code System.out} rather than the platform default,
+     * and flushing or closing the writer flushes {@code System.out} without closing it.
+     *
+     * @return the writer.
+     */
+    static Writer consoleWriter() {
+        return new BufferedWriter(new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+                System.out.print(new String(buffer, offset, length));
+            }
+
+            @Override
+            public void flush() {
+                System.out.flush();
+            }
+
+            @Override
+            public void close() {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Write a {@link CharSequence} to an {@link Appendable}, canceling the same escape
+     * characters as {@link #cancelEscapeSequences}. The runs between them are appended
+     * straight from {@code str}, so nothing is allocated along the way.
+     *
+     * @param str the characters to write.
+     * @param out where to write them.
+     * @throws IOException if {@code out} does.
+     */
+    public static void appendEscaped(CharSequence str, Appendable out) throws IOException {
+        int start = 0;
+        for (int i; (i = indexOfEscape(str, start)) >= 0; start = i + 1) {
+            out.append(str, start, i);
+            switch (str.charAt(i)) {
+                case 9:
+                    out.append("\\t");
+                    break;
+                case 10:
+                    out.append("\\n");
+                    break;
+                case 13:
+                    out.append("\\r");
+                    break;
+            }
+        }
+        out.append(str, start, str.length());
+    }
+
+    /**
+     * @return the index of the first character to escape in {@code str}, starting from
+     * {@code from}, or {@code -1} if there is none.
+     */
+    private static int indexOfEscape(CharSequence str, int from) {
+        for (int i = from, length = str.length(); i < length; i++) {
+            char c = str.charAt(i);
+            if (c == 9 || c == 10 || c == 13) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Split a {@link String} around every occurrence of a separator, dropping empty parts.
+     * Unlike {@link String#split(String)}, the separator is taken literally.
+     *
+     * @param str       the {@link String} to split.
+     * @param separator the separator.
+     * @return the parts.
+     */
+    private static List<String> split(String str, String separator) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        for (int end; (end = str.indexOf(separator, start)) >= 0; start = end + separator.length()) {
+            if (end > start) {
+                parts.add(str.substring(start, end));
+            }
+        }
+        if (start < str.length()) {
+            parts.add(str.substring(start));
+        }
+        return parts;
+    }
+
+    public static <K> String pln(K s) {
+        return '\n' + s.toString();
+    }
+
+    public static <K> String ln(K s) {
+        return s.toString() + '\n';
+    }
+
+    /**
+     * Scramble the bits of a hash, so that every bit of the input affects every bit of
+     * the output (the finalizer of MurmurHash3).
+     */
+    private static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * @return whether {@code a} comes before {@code b} in breadth-first order, given
+     * that both sit {@code depth} levels below the same node.
+     */
+    private static <T> boolean precedes(MTree<T> a, MTree<T> b, int depth) {
+        for (int i = 0; i < depth; i++) {
+            if (a.PARENT == b.PARENT) {
+                return a.indexInParent < b.indexInParent;
+            }
+            a = a.PARENT;
+            b = b.PARENT;
+        }
+        return false;
+    }
+
+    /**
+     * The best match found so far by a {@link #parallelFind(Object, ForkJoinPool)}, shared
+     * by all of its tasks.
+     *
+     * @param <T> The type of the data stored in the tree.
+     */
+    private static final class Shallowest<T> {
+        private volatile MTree<T> node;
+
+        /**
+         * The depth of {@link #node} below the searched node; nothing at or below this
+         * depth needs to be visited anymore.
+         */
+        private volatile int depth = Integer.MAX_VALUE;
+
+        synchronized void offer(MTree<T> node, int depth) {
+            if (depth < this.depth || (depth == this.depth && precedes(node, this.node, depth))) {
+                this.node = node;
+                this.depth = depth;
+            }
+        }
+    }
+
+    /**
+     * Searches the nodes spanning from a node for the shallowest match, handing large
+     * subtrees to their own tasks. As with {@link RenderTask}, the largest child of every
+     * node is searched by the task that reached it and only its siblings are forked, so
+     * that tasks nest as deep as the logarithm of the size of the tree rather than as
+     * deep as the tree itself.
+     *
+     * @param <T> The type of the data stored in the tree.
+     */
+    private static final class FindTask<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final T data;
+        private final MTree<T> node;
+        private final int depth;
+        private final Shallowest<T> best;
+
+        FindTask(T data, MTree<T> node, int depth, Shallowest<T> best) {
+            this.data = data;
+            this.node = node;
+            this.depth = depth;
+            this.best = best;
+        }
+
+        @Override
+        protected void compute() {
+            List<FindTask<T>> forked = new ArrayList<>();
+            MTree<T> current = node;
+            for (int level = depth; level + 1 <= best.depth; level++) {
+                MTree<T> match = current.childrenByValue.get(data);
+                if (match != null) {
+                    best.offer(match, level + 1);
+                    break;
+                }
+
+                if (current.size < PARALLEL_SEARCH_THRESHOLD) {
+                    searchSequentially(current, level);
+                    break;
+                }
+
+                List<MTree<T>> children = current.CHILDREN;
+                int largest = largestChild(current);
+                for (int i = 0; i < children.size(); i++) {
+                    if (i != largest) {
+                        FindTask<T> task = new FindTask<>(data, children.get(i), level + 1, best);
+                        task.fork();
+                        forked.add(task);
+                    }
+                }
+                current = children.get(largest);
+            }
+
+            for (FindTask<T> task : forked) {
+                task.join();
+            }
+        }
+
+        /**
+         * Breadth-first search of the subtree below the children of a node, one level at
+         * a time, giving up as soon as the next level could not improve on the best match.
+         *
+         * @param start the node whose children to search below.
+         * @param depth the depth of {@code start} below the searched node.
+         */
+        private void searchSequentially(MTree<T> start, int depth) {
+            ArrayDeque<MTree<T>> pending = new ArrayDeque<>(start.CHILDREN);
+            for (int level = depth + 1; !pending.isEmpty() && level + 1 <= best.depth; level++) {
+                for (int i = pending.size(); i > 0; i--) {
+                    MTree<T> current = pending.poll();
+                    MTree<T> match = current.childrenByValue.get(data);
+                    if (match != null) {
+                        best.offer(match, level + 1);
+                        return;
+                    }
+                    pending.addAll(current.CHILDREN);
+                }
+            }
+        }
+
+        /**
+         * @return the position of the child of {@code node} with the most nodes; the
+         * node must have children.
+         */
+        static <T> int largestChild(MTree<T> node) {
+            List<MTree<T>> children = node.CHILDREN;
+            int largest = 0;
+            for (int i = 1; i < children.size(); i++) {
+                if (children.get(i).size > children.get(largest).size) {
+                    largest = i;
+                }
+            }
+            return largest;
+        }
+    }
+
+    /**
+     * Collects the nodes spanning from a node whose value matches a predicate, handing
+     * large subtrees to their own tasks. The largest child of every node stays with the
+     * task that reached it, as in {@link FindTask}; the matches of the children forked
+     * after it are put back after those of the largest child, so that the result stays
+     * in preorder.
+     *
+     * @param <T> The type of the data stored in the tree.
+     */
+    private static final class FindAllTask<T> extends RecursiveTask<List<MTree<T>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Predicate<? super T> predicate;
+        private final MTree<T> node;
+
+        FindAllTask(Predicate<? super T> predicate, MTree<T> node) {
+            this.predicate = predicate;
+            this.node = node;
+        }
+
+        @Override
+        protected List<MTree<T>> compute() {
+            // For every level kept by this task: the node, if it matches, then the tasks
+            // for the children before the one kept, and those for the children after it
+            List<MTree<T>> heads = new ArrayList<>();
+            List<List<FindAllTask<T>>> before = new ArrayList<>();
+            List<List<FindAllTask<T>>> after = new ArrayList<>();
+
+            MTree<T> current = node;
+            while (current.size >= PARALLEL_SEARCH_THRESHOLD) {
+                heads.add(predicate.test(current.DATA) ? current : null);
+                List<MTree<T>> children = current.CHILDREN;
+                int largest = FindTask.largestChild(current);
+                List<FindAllTask<T>> front = new ArrayList<>(largest);
+                List<FindAllTask<T>> back = new ArrayList<>(children.size() - largest - 1);
+                for (int i = 0; i < children.size(); i++) {
+                    if (i != largest) {
+                        FindAllTask<T> task = new FindAllTask<>(predicate, children.get(i));
+                        task.fork();
+                        (i < largest ? front : back).add(task);
+                    }
+                }
+                before.add(front);
+                after.add(back);
+                current = children.get(largest);
+            }
+
+            List<MTree<T>> own = new ArrayList<>();
+            ArrayDeque<MTree<T>> stack = new ArrayDeque<>();
+            stack.push(current);
+            while (!stack.isEmpty()) {
+                MTree<T> next = stack.pop();
+                if (predicate.test(next.DATA)) {
+                    own.add(next);
+                }
+                List<MTree<T>> children = next.CHILDREN;
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    stack.push(children.get(i));
+                }
+            }
+
+            List<MTree<T>> matches = new ArrayList<>();
+            for (int level = 0; level < heads.size(); level++) {
+                if (heads.get(level) != null) {
+                    matches.add(heads.get(level));
+                }
+                for (FindAllTask<T> task : before.get(level)) {
+                    matches.addAll(task.join());
+                }
+            }
+            matches.addAll(own);
+            for (int level = after.size() - 1; level >= 0; level--) {
+                for (FindAllTask<T> task : after.get(level)) {
+                    matches.addAll(task.join());
+                }
+            }
+            return matches;
+        }
+    }
+
+    /**
+     * The state of a single call to render a tree. Every call owns one, which is what
+     * lets several threads render the same tree at once.
+     *
+     * <p>Trees are walked with an explicit stack rather than by recursion, so that a
+     * render takes the same amount of call stack at any depth, and its working memory
+     * grows with the depth of the tree rather than with the size of the output.</p>
+     *
+     * @param <T> The type of the data stored in the tree.
+     */
+    private static final class Renderer<T> {
+        /**
+         * The length of one level of indentation; pipes and blank space are equally wide.
+         */
+        private static final int SEGMENT = PIPE_SEGMENT.length();
+
+        /**
+         * Whether labels are escaped, fixed for the whole call.
+         */
+        private final boolean escape;
+
+        /**
+         * The indentation of the lines currently being written, one segment per level:
+         * a pipe while the ancestor at that level has siblings left to print, blank space
+         * otherwise. Only the first {@link #prefixLength} characters are in use.
+         */
+        private char[] prefix;
+
+        private int prefixLength;
+
+        Renderer(boolean escape, String prefix) {
+            this.escape = escape;
+            this.prefix = new char[Math.max(prefix.length(), SEGMENT << 4)];
+            this.prefixLength = prefix.length();
+            prefix.getChars(0, prefixLength, this.prefix, 0);
+        }
+
+        /**
+         * Write the line of a single node, without a line break.
+         *
+         * @param out  where to write the line.
+         * @param node the node.
+         * @param last whether the node is the last child to its parent.
+         * @throws IOException if {@code out} does.
+         */
+        void renderLine(Appendable out, MTree<T> node, boolean last) throws IOException {
+            writePrefix(out);
+            out.append(last ? LAST_BRANCH : BRANCH);
+            String label = node.DATA.toString();
+            if (escape) {
+                appendEscaped(label, out);
+            } else {
+                out.append(label);
+            }
+        }
+
+        /**
+         * Write the lines of every node spanning from {@code parent}, in order.
+         *
+         * @param out    where to write the lines.
+         * @param parent the node whose children are written.
+         * @throws IOException if {@code out} does.
+         */
+        void renderChildren(Appendable out, MTree<T> parent) throws IOException {
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            MTree<T>[] path = new MTree[8];
+            path[0] = parent;
+            renderFrom(out, path, new int[path.length], 0, Long.MAX_VALUE, false);
+        }
+
+        /**
+         * Write the lines of up to {@code count} nodes spanning from {@code root}, in
+         * preorder, starting with {@code start}. The prefix must be empty; the prefix
+         * for {@code start} is rebuilt from its ancestors, so nothing before it is visited.
+         *
+         * @param out   where to write the lines.
+         * @param root  the node whose descendants are written.
+         * @param start the first node to write, spanning from {@code root}.
+         * @param count the amount of lines to write.
+         * @param first whether the first line begins the output, and so does not need
+         *              a line break before it.
+         * @throws IOException if {@code out} does.
+         */
+        void renderRange(Appendable out, MTree<T> root, MTree<T> start, long count, boolean first) throws IOException {
+            // Resume the walk as if it had just reached start, from the parent down
+            int depth = start.depth - root.depth - 1;
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            MTree<T>[] path = new MTree[Math.max(depth + 1, 8)];
+            int[] position = new int[path.length];
+            position[depth] = start.indexInParent;
+            for (MTree<T> node = start.PARENT; node != root; node = node.PARENT) {
+                int level = node.depth - root.depth;
+                path[level] = node;
+                position[level - 1] = node.indexInParent + 1;
+            }
+            path[0] = root;
+            for (int level = 1; level <= depth; level++) {
+                enter(position[level - 1] == path[level - 1].CHILDREN.size());
+            }
+            renderFrom(out, path, position, depth, count, first);
+        }
+
+        /**
+         * Write the lines of up to {@code count} nodes, in preorder, resuming a walk.
+         *
+         * @param out      where to write the lines.
+         * @param path     the ancestors of the next node to write, from the top down.
+         * @param position the next child to visit of each node on {@code path}.
+         * @param depth    the index of the last node on {@code path}.
+         * @param count    the amount of lines to write.
+         * @param first    whether the first line does not need a line break before it.
+         * @throws IOException if {@code out} does.
+         */
+        private void renderFrom(Appendable out, MTree<T>[] path, int[] position, int depth, long count, boolean first) throws IOException {
+            while (depth >= 0 && count > 0) {
+                List<MTree<T>> children = path[depth].CHILDREN;
+                if (position[depth] == children.size()) {
+                    if (--depth >= 0) {
+                        leave();
+                    }
+                    continue;
+                }
+
+                MTree<T> node = children.get(position[depth]++);
+                boolean last = position[depth] == children.size();
+                if (!first) {
+                    out.append('\n');
+                }
+                first = false;
+                renderLine(out, node, last);
+                count--;
+
+                if (!node.CHILDREN.isEmpty()) {
+                    if (++depth == path.length) {
+                        path = Arrays.copyOf(path, depth << 1);
+                        position = Arrays.copyOf(position, depth << 1);
+                    }
+                    path[depth] = node;
+                    position[depth] = 0;
+                    enter(last);
+                }
+            }
+
+            // Leave the prefix as it was found
+            while (depth-- > 0) {
+                leave();
+            }
+        }
+
+        /**
+         * Get the lines of the nodes spanning from {@code root}, reusing the blocks
+         * cached for clean subtrees rendered with the same prefix, and caching the
+         * blocks of the subtrees rebuilt. Every node visited is marked clean.
+         *
+         * @param root the node whose children are rendered.
+         * @return the lines, as they would be written by {@link #renderChildren}.
+         * @throws IOException never; {@link StringBuilder} does not throw.
+         */
+        RenderBlock cachedChildren(MTree<T> root) throws IOException {
+            RenderBlock block = cachedBlock(root);
+            if (block != null) {
+                return block;
+            }
+
+            // The nodes whose blocks are being rebuilt, the next child to visit of each,
+            // and their parts so far: strings of lines or the blocks of large children
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            MTree<T>[] path = new MTree[8];
+            int[] position = new int[path.length];
+            List<List<Object>> parts = new ArrayList<>();
+            StringBuilder text = new StringBuilder();
+            int depth = 0;
+            path[0] = root;
+            parts.add(new ArrayList<>());
+
+            while (true) {
+                MTree<T> parent = path[depth];
+                List<MTree<T>> children = parent.CHILDREN;
+                if (position[depth] == children.size()) {
+                    List<Object> finished = parts.remove(depth);
+                    flush(text, finished);
+                    block = new RenderBlock(escape, new String(prefix, 0, prefixLength), finished.toArray());
+                    parent.renderBlock = block;
+                    parent.renderDirty = false;
+                    if (depth-- == 0) {
+                        return block;
+                    }
+                    leave();
+                    parts.get(depth).add(block);
+                    continue;
+                }
+
+                MTree<T> node = children.get(position[depth]++);
+                boolean last = position[depth] == children.size();
+                text.append('\n');
+                renderLine(text, node, last);
+
+                if (node.CHILDREN.isEmpty()) {
+                    node.renderDirty = false;
+                    continue;
+                }
+                enter(last);
+                if (node.size < RENDER_CACHE_THRESHOLD) {
+                    renderChildren(text, node);
+                    markClean(node);
+                    leave();
+                    continue;
+                }
+
+                flush(text, parts.get(depth));
+                RenderBlock cached = cachedBlock(node);
+                if (cached != null) {
+                    parts.get(depth).add(cached);
+                    leave();
+                } else {
+                    if (++depth == path.length) {
+                        path = Arrays.copyOf(path, depth << 1);
+                        position = Arrays.copyOf(position, depth << 1);
+                    }
+                    path[depth] = node;
+                    position[depth] = 0;
+                    parts.add(new ArrayList<>());
+                }
+            }
+        }
+
+        /**
+         * @return the block cached for {@code node}, if it is clean and was rendered in
+         * the current context; or {@code null}.
+         */
+        private RenderBlock cachedBlock(MTree<T> node) {
+            RenderBlock block = node.renderBlock;
+            return !node.renderDirty && block != null && block.matches(escape, prefix, prefixLength) ? block : null;
+        }
+
+        /**
+         * Move the lines written so far to the parts of a block.
+         */
+        private static void flush(StringBuilder text, List<Object> parts) {
+            if (text.length() > 0) {
+                parts.add(text.toString());
+                text.setLength(0);
+            }
+        }
+
+        /**
+         * Mark a subtree clean after rendering it without caching. Clean nodes have
+         * clean descendants, so they are not entered.
+         */
+        private static void markClean(MTree<?> node) {
+            ArrayDeque<MTree<?>> stack = new ArrayDeque<>();
+            stack.push(node);
+            while (!stack.isEmpty()) {
+                MTree<?> next = stack.pop();
+                if (next.renderDirty) {
+                    next.renderDirty = false;
+                    for (MTree<?> child : next.CHILDREN) {
+                        stack.push(child);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Write the lines of the nodes spanning from {@code root}, in order, within the
+         * limits of {@code options}. Whatever is cut off is summarized in one line.
+         *
+         * @param out     where to write the lines.
+         * @param root    the node whose children are written.
+         * @param options the limits to render within.
+         * @throws IOException if {@code out} does.
+         */
+        void renderLimited(Appendable out, MTree<T> root, RenderOptions options) throws IOException {
+            if (root.CHILDREN.isEmpty()) {
+                return;
+            }
+            if (options.getMaxDepth() == 0) {
+                out.append('\n');
+                renderSummary(out, root.size - 1);
+                return;
+            }
+
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            MTree<T>[] path = new MTree[8];
+            int[] position = new int[path.length];
+            int depth = 0;
+            path[0] = root;
+
+            while (depth >= 0) {
+                MTree<T> parent = path[depth];
+                List<MTree<T>> children = parent.CHILDREN;
+                int shown = Math.min(children.size(), options.getMaxChildren());
+                if (position[depth] == shown) {
+                    if (shown < children.size()) {
+                        out.append('\n');
+                        renderSummary(out, parent.size - 1 - parent.sizeBefore(shown));
+                    }
+                    if (--depth >= 0) {
+                        leave();
+                    }
+                    continue;
+                }
+
+                MTree<T> node = children.get(position[depth]++);
+                // A summary follows the last child shown, unless every child is
+                boolean last = position[depth] == children.size();
+                out.append('\n');
+                renderLine(out, node, last);
+
+                if (!node.CHILDREN.isEmpty()) {
+                    enter(last);
+                    if (depth + 1 >= options.getMaxDepth()) {
+                        out.append('\n');
+                        renderSummary(out, node.size - 1);
+                        leave();
+                    } else {
+                        if (++depth == path.length) {
+                            path = Arrays.copyOf(path, depth << 1);
+                            position = Arrays.copyOf(position, depth << 1);
+                        }
+                        path[depth] = node;
+                        position[depth] = 0;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Write the line standing in for nodes that were cut off, without a line break.
+         *
+         * @param out   where to write the line.
+         * @param count the amount of nodes left out.
+         * @throws IOException if {@code out} does.
+         */
+        void renderSummary(Appendable out, long count) throws IOException {
+            writePrefix(out);
+            out.append(LAST_BRANCH)
+                    .append(String.format(Locale.ROOT, "\u2026 %,d more %s", count, count == 1 ? "node" : "nodes"));
+        }
+
+        /**
+         * Write the current indentation, without going through a temporary
+         * {@link String} for the most common kinds of output.
+         *
+         * @param out where to write the indentation.
+         * @throws IOException if {@code out} does.
+         */
+        private void writePrefix(Appendable out) throws IOException {
+            if (out instanceof StringBuilder) {
+                ((StringBuilder) out).append(prefix, 0, prefixLength);
+            } else if (out instanceof Writer) {
+                ((Writer) out).write(prefix, 0, prefixLength);
+            } else {
+                out.append(CharBuffer.wrap(prefix, 0, prefixLength));
+            }
+        }
+
+        /**
+         * @return the current indentation.
+         */
+        String prefix() {
+            return new String(prefix, 0, prefixLength);
+        }
+
+        /**
+         * Indent the prefix by one level.
+         *
+         * @param last whether the node being entered is the last child to its parent.
+         */
+        void enter(boolean last) {
+            if (prefixLength + SEGMENT > prefix.length) {
+                prefix = Arrays.copyOf(prefix, prefix.length << 1);
+            }
+            (last ? BLANK_SEGMENT : PIPE_SEGMENT).getChars(0, SEGMENT, prefix, prefixLength);
+            prefixLength += SEGMENT;
+        }
+
+        /**
+         * Undo the last {@link #enter(boolean)}.
+         */
+        void leave() {
+            prefixLength -= SEGMENT;
+        }
+    }
+
+    /**
+     * The rendered lines of every node spanning from a node, as cached by
+     * {@link Renderer#cachedChildren(MTree)}. Blocks are immutable once built; the
+     * blocks of large subtrees are referenced from their parent's, rather than copied.
+     */
+    private static final class RenderBlock {
+        /**
+         * Whether labels were escaped.
+         */
+        private final boolean escape;
+
+        /**
+         * The indentation the lines were rendered with.
+         */
+        private final String prefix;
+
+        /**
+         * Either {@link String}s of lines or nested {@link RenderBlock}s, in order.
+         */
+        private final Object[] parts;
+
+        RenderBlock(boolean escape, String prefix, Object[] parts) {
+            this.escape = escape;
+            this.prefix = prefix;
+            this.parts = parts;
+        }
+
+        /**
+         * @return whether the lines were rendered in the given context.
+         */
+        boolean matches(boolean escape, char[] prefix, int length) {
+            if (this.escape != escape || this.prefix.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (this.prefix.charAt(i) != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Write the lines, nested blocks included.
+         *
+         * @param out where to write the lines.
+         * @throws IOException if {@code out} does.
+         */
+        void writeTo(Appendable out) throws IOException {
+            // Nested blocks may run as deep as the tree, so they are not recursed into
+            ArrayDeque<Object> stack = new ArrayDeque<>();
+            stack.push(this);
+            while (!stack.isEmpty()) {
+                Object part = stack.pop();
+                if (part instanceof RenderBlock) {
+                    Object[] parts = ((RenderBlock) part).parts;
+                    for (int i = parts.length - 1; i >= 0; i--) {
+                        stack.push(parts[i]);
+                    }
+                } else {
+                    out.append((String) part);
+                }
+            }
+        }
+    }
 
     /**
-     * Get whether this instance of {@link MTree} is escaping character
-     * sequences in pretty Strings.
+     * Renders the children of a node, handing large subtrees to their own tasks. The
+     * largest child of every node is rendered by the task that reached it, so that each
+     * task hands off at most half of what it was given, and tasks only ever nest as
+     * deep as the logarithm of the size of the tree. The result is the output in
+     * order, split into blocks.
      *
-     * @return whether it is or is not
+     * @param <T> The type of the data stored in the tree.
      */
-    public boolean isEscapingCharacters() {
-        return escapeCharacters;
+    private static final class RenderTask<T> extends RecursiveTask<List<CharSequence>> {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean escape;
+        private final MTree<T> parent;
+        private final String prefix;
+
+        RenderTask(boolean escape, MTree<T> parent, String prefix) {
+            this.escape = escape;
+            this.parent = parent;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected List<CharSequence> compute() {
+            Renderer<T> renderer = new Renderer<>(escape, prefix);
+            // Either finished blocks or forked tasks, in output order
+            List<Object> parts = new ArrayList<>();
+            StringBuilder block = new StringBuilder();
+
+            // The path to the current node, the next child to visit of each node on it,
+            // and the position of the child kept by this task
+            @SuppressWarnings({"unchecked", "rawtypes"})
+            MTree<T>[] path = new MTree[8];
+            int[] position = new int[path.length];
+            int[] largest = new int[path.length];
+            int depth = 0;
+            path[0] = parent;
+            largest[0] = largestChild(parent);
+
+            try {
+                while (depth >= 0) {
+                    List<MTree<T>> children = path[depth].CHILDREN;
+                    if (position[depth] == children.size()) {
+                        if (--depth >= 0) {
+                            renderer.leave();
+                        }
+                        continue;
+                    }
+
+                    int index = position[depth]++;
+                    MTree<T> node = children.get(index);
+                    boolean last = position[depth] == children.size();
+                    block.append('\n');
+                    renderer.renderLine(block, node, last);
+
+                    if (!node.CHILDREN.isEmpty()) {
+                        renderer.enter(last);
+                        if (node.size >= PARALLEL_RENDER_THRESHOLD && index != largest[depth]) {
+                            parts.add(block);
+                            parts.add(new RenderTask<>(escape, node, renderer.prefix()).fork());
+                            block = new StringBuilder();
+                            renderer.leave();
+                        } else {
+                            if (++depth == path.length) {
+                                path = Arrays.copyOf(path, depth << 1);
+                                position = Arrays.copyOf(position, depth << 1);
+                                largest = Arrays.copyOf(largest, depth << 1);
+                            }
+                            path[depth] = node;
+                            position[depth] = 0;
+                            largest[depth] = largestChild(node);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // StringBuilder does not throw
+                throw new UncheckedIOException(e);
+            }
+            parts.add(block);
+
+            List<CharSequence> result = new ArrayList<>(parts.size());
+            for (Object part : parts) {
+                if (part instanceof RenderTask) {
+                    result.addAll(((RenderTask<?>) part).join());
+                } else {
+                    result.add((CharSequence) part);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return the position of the child of {@code node} with the most nodes, or
+         * {@code -1} if none of its children could be handed to a task anyway.
+         */
+        private static <T> int largestChild(MTree<T> node) {
+            if (node.size <= PARALLEL_RENDER_THRESHOLD) {
+                return -1;
+            }
+            List<MTree<T>> children = node.CHILDREN;
+            int largest = 0;
+            for (int i = 1; i < children.size(); i++) {
+                if (children.get(i).size > children.get(largest).size) {
+                    largest = i;
+                }
+            }
+            return largest;
+        }
     }
 
     /**
-     * Set whether this instance of {@link MTree} is escaping character
-     * sequences in pretty Strings.
+     * Walks a tree in preorder, both as an {@link Iterator} and as a {@link Spliterator}.
      *
-     * @param escapeCharacters the value
+     * <p>The nodes left to visit are the preorder of every subtree on {@link #pending},
+     * first to last, preceded by the nodes on {@link #heads} on their own. Splitting hands
+     * the front half of the pending subtrees to a new spliterator; when only one is left,
+     * it is opened up along its first children until about half of its nodes go first,
+     * so chains and other lopsided trees still split evenly.</p>
+     *
+     * <p>Subtrees whose root matches {@link #prune} are dropped as they are reached, so
+     * they never make it onto {@link #pending}. Since that makes the amount of nodes left
+     * unknown in advance, only a walk without pruning is {@link #SIZED}.</p>
+     *
+     * @param <T> The type of the data stored in the tree.
      */
-    public void setEscapingCharacters(boolean escapeCharacters) {
-        this.escapeCharacters = escapeCharacters;
+    private static final class NodeSpliterator<T> implements Spliterator<MTree<T>>, Iterator<MTree<T>> {
+        /**
+         * Nodes to visit before {@link #pending}, in order, without their children.
+         */
+        private ArrayDeque<MTree<T>> heads;
+
+        /**
+         * Subtrees left to visit, in order.
+         */
+        private final ArrayDeque<MTree<T>> pending;
+
+        /**
+         * The amount of nodes left to visit; with pruning, an upper bound.
+         */
+        private long remaining;
+
+        /**
+         * The test deciding which subtrees to skip, or {@code null}.
+         */
+        private final Predicate<? super T> prune;
+
+        NodeSpliterator(MTree<T> root) {
+            this(root, null);
+        }
+
+        NodeSpliterator(MTree<T> root, Predicate<? super T> prune) {
+            this.heads = new ArrayDeque<>();
+            this.pending = new ArrayDeque<>();
+            this.prune = prune;
+            if (!pruned(root)) {
+                this.pending.push(root);
+                this.remaining = root.size;
+            }
+        }
+
+        private NodeSpliterator(ArrayDeque<MTree<T>> heads, ArrayDeque<MTree<T>> pending, long remaining, Predicate<? super T> prune) {
+            this.heads = heads;
+            this.pending = pending;
+            this.remaining = remaining;
+            this.prune = prune;
+        }
+
+        /**
+         * @return whether to skip a subtree, dropping it from the nodes left to visit.
+         */
+        private boolean pruned(MTree<T> node) {
+            return prune != null && prune.test(node.DATA);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty() || !pending.isEmpty();
+        }
+
+        @Override
+        public MTree<T> next() {
+            MTree<T> node = heads.poll();
+            if (node == null) {
+                node = pending.poll();
+                if (node == null) {
+                    throw new NoSuchElementException();
+                }
+                List<MTree<T>> children = node.CHILDREN;
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    MTree<T> child = children.get(i);
+                    if (pruned(child)) {
+                        remaining -= child.size;
+                    } else {
+                        pending.push(child);
+                    }
+                }
+            }
+            remaining--;
+            return node;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super MTree<T>> action) {
+            if (!hasNext()) {
+                return false;
+            }
+            action.accept(next());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super MTree<T>> action) {
+            while (hasNext()) {
+                action.accept(next());
+            }
+        }
+
+        @Override
+        public Spliterator<MTree<T>> trySplit() {
+            ArrayDeque<MTree<T>> prefix = new ArrayDeque<>();
+            ArrayDeque<MTree<T>> prefixHeads = heads;
+            long prefixSize = prefixHeads.size();
+            if (pending.size() > 1) {
+                for (int i = pending.size() / 2; i > 0; i--) {
+                    MTree<T> subtree = pending.poll();
+                    prefixSize += subtree.size;
+                    prefix.add(subtree);
+                }
+            } else if (pending.isEmpty()) {
+                return null;
+            } else if (prefixHeads.isEmpty()) {
+                // Open up the only subtree left: its root and whole children go first while
+                // they fit in half of it, stepping into the first child if that one does not
+                if (pending.peek().CHILDREN.isEmpty()) {
+                    return null;
+                }
+                long target = remaining / 2;
+                MTree<T> node = pending.poll();
+                while (node != null) {
+                    prefixHeads.add(node);
+                    prefixSize++;
+                    List<MTree<T>> children = node.CHILDREN;
+                    MTree<T> open = null;
+                    int i = 0;
+                    for (; i < children.size(); i++) {
+                        MTree<T> child = children.get(i);
+                        if (pruned(child)) {
+                            remaining -= child.size;
+                        } else if (prefixSize + child.size <= target) {
+                            prefixSize += child.size;
+                            prefix.add(child);
+                        } else {
+                            if (prefix.isEmpty() && prefixSize < target) {
+                                open = child;
+                                i++;
+                            }
+                            break;
+                        }
+                    }
+                    // What is left of a deeper level comes before what is left above it
+                    for (int j = children.size() - 1; j >= i; j--) {
+                        MTree<T> child = children.get(j);
+                        if (pruned(child)) {
+                            remaining -= child.size;
+                        } else {
+                            pending.push(child);
+                        }
+                    }
+                    node = open;
+                }
+            }
+
+            heads = new ArrayDeque<>();
+            remaining -= prefixSize;
+            return new NodeSpliterator<>(prefixHeads, prefix, prefixSize, prune);
+        }
+
+        @Override
+        public long estimateSize() {
+            return remaining;
+        }
+
+        @Override
+        public int characteristics() {
+            return prune == null ? ORDERED | DISTINCT | NONNULL | SIZED | SUBSIZED : ORDERED | DISTINCT | NONNULL;
+        }
     }
 
-    //
-    // RESOURCES
-    //
+    /**
+     * Walks a tree in postorder, keeping the path to the current node on a stack.
+     *
+     * @param <T> The type of the data stored in the tree.
+     */
+    private static final class PostorderIterator<T> implements Iterator<MTree<T>> {
+        private final ArrayDeque<MTree<T>> path = new ArrayDeque<>();
+
+        /**
+         * For every node on {@link #path}, how many of its children were already visited.
+         */
+        private int[] visited = new int[8];
+
+        PostorderIterator(MTree<T> root) {
+            path.push(root);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !path.isEmpty();
+        }
+
+        @Override
+        public MTree<T> next() {
+            if (path.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            while (true) {
+                int top = path.size() - 1;
+                MTree<T> node = path.peek();
+                if (visited[top] == node.CHILDREN.size()) {
+                    path.pop();
+                    if (top > 0) {
+                        visited[top - 1]++;
+                    }
+                    return node;
+                }
+                if (top + 1 == visited.length) {
+                    visited = Arrays.copyOf(visited, visited.length << 1);
+                }
+                visited[top + 1] = 0;
+                path.push(node.CHILDREN.get(visited[top]));
+            }
+        }
+    }
 
     /**
-     * Function that returns a {@link String} repeating a character (c) a certain amount of times (reps).
+     * Walks a tree level by level, keeping the nodes left to visit on a queue.
+     *
+     * @param <T> The type of the data stored in the tree.
      */
-    private static final BiFunction<Integer, Character, String> repeatCharacters = (reps, c) -> {
-        StringBuilder str = new StringBuilder();
-        for (int i = 0; i < reps; i++) {
-            str.append(c);
+    private static final class LevelOrderIterator<T> implements Iterator<MTree<T>> {
+        private final ArrayDeque<MTree<T>> pending = new ArrayDeque<>();
+
+        LevelOrderIterator(MTree<T> root) {
+            pending.add(root);
         }
-        return str.toString();
-    };
+
+        @Override
+        public boolean hasNext() {
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public MTree<T> next() {
+            MTree<T> node = pending.poll();
+            if (node == null) {
+                throw new NoSuchElementException();
+            }
+            pending.addAll(node.CHILDREN);
+            return node;
+        }
+    }
 
     /**
-     * Low-level function that returns a {@link String} canceling most ['\n', '\t', '\r']
-     * of Java's escape characters.
+     * Adds key paths to a tree one after another, remembering the nodes along the last
+     * path so that the next one only has to resolve what it does not share with it.
+     *
+     * @param <T> The type of the data stored in the tree.
      */
-    public static final UnaryOperator<String> cancelEscapeSequences = (str) -> {
-        StringBuilder res = new StringBuilder();
-        char[] chars = str.toCharArray();
-        for (char c : chars) {
-            switch (c) {
-                case 9:
-                    res.append("\\t");
-                    break;
-                case 10:
-                    res.append("\\n");
-                    break;
-                case 13:
-                    res.append("\\r");
-                    break;
+    private static final class PathLoader<T> {
+        private final MTree<T> root;
+
+        /**
+         * The nodes along the last path loaded, starting with the root.
+         */
+        private final List<MTree<T>> cursor = new ArrayList<>();
+
+        PathLoader(MTree<T> root) {
+            this.root = root;
+            this.cursor.add(root);
+        }
+
+        void load(List<? extends T> path) {
+            int depth = 0;
+            int shared = Math.min(path.size(), cursor.size() - 1);
+            while (depth < shared && cursor.get(depth + 1).DATA.equals(path.get(depth))) {
+                depth++;
+            }
+            cursor.subList(depth + 1, cursor.size()).clear();
+
+            MTree<T> node = cursor.get(depth);
+            for (; depth < path.size(); depth++) {
+                T key = path.get(depth);
+                if (key == null) {
+                    throw new NullPointerException("null input");
+                }
+                MTree<T> child = node.childrenByValue.get(key);
+                if (child == null) {
+                    child = new MTree<>(key);
+                    node.addChild(child);
+                }
+                cursor.add(child);
+                node = child;
+            }
+        }
+    }
+
+    /**
+     * Lookup table from node values to the nodes holding them, shared by every node
+     * of an indexed tree. Values are only unique among siblings, so a key maps either
+     * to a single {@link MTree} or, when the value repeats across branches, to a
+     * {@link List} of them.
+     *
+     * @param <T> The type of the data stored in the tree.
+     */
+    private static final class Index<T> {
+        private final Map<T, Object> nodes = new HashMap<>();
+
+        /**
+         * Point every node spanning from {@code root} (inclusive) to a new index,
+         * registering them with it.
+         *
+         * @param root  the subtree to move.
+         * @param index the new index, or {@code null} to stop indexing the subtree.
+         */
+        static <T> void adopt(MTree<T> root, Index<T> index) {
+            ArrayDeque<MTree<T>> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                MTree<T> node = stack.pop();
+                node.index = index;
+                if (index != null) {
+                    index.add(node);
+                }
+                for (MTree<T> child : node.CHILDREN) {
+                    stack.push(child);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void add(MTree<T> node) {
+            Object current = nodes.get(node.DATA);
+            if (current == null) {
+                nodes.put(node.DATA, node);
+            } else if (current instanceof MTree) {
+                List<MTree<T>> list = new ArrayList<>(2);
+                list.add((MTree<T>) current);
+                list.add(node);
+                nodes.put(node.DATA, list);
+            } else {
+                ((List<MTree<T>>) current).add(node);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized void remove(MTree<T> node) {
+            Object current = nodes.get(node.DATA);
+            if (current == node) {
+                nodes.remove(node.DATA);
+            } else if (current instanceof List) {
+                List<MTree<T>> list = (List<MTree<T>>) current;
+                // Nodes compare equal by structure, so look for this one in particular
+                list.removeIf(entry -> entry == node);
+                if (list.size() == 1) {
+                    nodes.put(node.DATA, list.get(0));
+                }
+            }
+        }
+
+        /**
+         * Find the shallowest node holding {@code data} that spans from {@code within}
+         * (inclusive). Ties between nodes of the same depth go to the one that comes
+         * first in breadth-first order.
+         *
+         * @param data   The object to be matched
+         * @param within The node to search under
+         * @return the matching node, or {@code null} if none exists.
+         */
+        @SuppressWarnings("unchecked")
+        synchronized MTree<T> shallowest(T data, MTree<T> within) {
+            Object current = nodes.get(data);
+            if (current == null) {
+                return null;
+            } else if (current instanceof MTree) {
+                MTree<T> node = (MTree<T>) current;
+                return distance(node, within) < 0 ? null : node;
+            }
+
+            MTree<T> best = null;
+            int bestDepth = Integer.MAX_VALUE;
+            for (MTree<T> node : (List<MTree<T>>) current) {
+                int depth = distance(node, within);
+                if (depth < 0 || depth > bestDepth) continue;
+                if (depth < bestDepth || precedes(node, best, depth)) {
+                    best = node;
+                    bestDepth = depth;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * @return how many levels {@code node} sits below {@code ancestor}, or {@code -1}
+         * if it does not span from it.
+         */
+        private static <T> int distance(MTree<T> node, MTree<T> ancestor) {
+            int distance = node.depth - ancestor.depth;
+            MTree<T> n = node;
+            for (int i = distance; i > 0 && n != null; i--) {
+                n = n.PARENT;
+            }
+            return n == ancestor ? distance : -1;
+        }
+    }
+
+    /**
+     * Writes and reads the values of nodes for {@link #writeTo(DataOutput, Codec)} and
+     * {@link #readFrom(DataInput, Codec)}. A codec must read back exactly the bytes it
+     * wrote, as values are not delimited in the format.
+     *
+     * @param <T> The type of the values.
+     */
+    public interface Codec<T> {
+        /**
+         * Values written as a variable-length byte count followed by their UTF-8 bytes.
+         */
+        Codec<String> STRING = new Codec<String>() {
+            @Override
+            public void write(String value, DataOutput out) throws IOException {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                writeVarLong(out, bytes.length);
+                out.write(bytes);
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                long length = readVarLong(in);
+                if (length < 0 || length > Integer.MAX_VALUE - 8) {
+                    throw new IOException("Invalid string length: " + length);
+                }
+                byte[] bytes = new byte[(int) length];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+
+        /**
+         * Values written as four bytes, high byte first.
+         */
+        Codec<Integer> INTEGER = new Codec<Integer>() {
+            @Override
+            public void write(Integer value, DataOutput out) throws IOException {
+                out.writeInt(value);
+            }
+
+            @Override
+            public Integer read(DataInput in) throws IOException {
+                return in.readInt();
+            }
+        };
+
+        /**
+         * Values written as eight bytes, high byte first.
+         */
+        Codec<Long> LONG = new Codec<Long>() {
+            @Override
+            public void write(Long value, DataOutput out) throws IOException {
+                out.writeLong(value);
+            }
+
+            @Override
+            public Long read(DataInput in) throws IOException {
+                return in.readLong();
+            }
+        };
+
+        /**
+         * Write a value.
+         *
+         * @param value the value, never {@code null}.
+         * @param out   where to write it.
+         * @throws IOException if {@code out} does.
+         */
+        void write(T value, DataOutput out) throws IOException;
+
+        /**
+         * Read a value written by {@link #write(Object, DataOutput)}.
+         *
+         * @param in where to read it from.
+         * @return the value, which must not be {@code null}.
+         * @throws IOException if {@code in} does, or if the bytes are not a valid value.
+         */
+        T read(DataInput in) throws IOException;
+
+        /**
+         * Write a non-negative {@code long} in as few bytes as it needs, seven bits at a
+         * time starting from the lowest, the high bit of every byte but the last set.
+         *
+         * @param out   where to write it.
+         * @param value the value.
+         * @throws IOException if {@code out} does.
+         */
+        static void writeVarLong(DataOutput out, long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+
+        /**
+         * Read a {@code long} written by {@link #writeVarLong(DataOutput, long)}.
+         *
+         * @param in where to read it from.
+         * @return the value.
+         * @throws IOException if {@code in} does, or if the value takes more than ten bytes.
+         */
+        static long readVarLong(DataInput in) throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed variable-length integer");
+        }
+    }
+
+    /**
+     * A single change computed by {@link #diff(MTree)}. The node an edit applies to is
+     * found by following the values in {@link #getPath()} down from the root the patch
+     * is applied to. Instances are immutable.
+     *
+     * @param <T> The type of the data stored in the tree.
+     */
+    public static final class Edit<T> {
+        /**
+         * What an {@link Edit} does.
+         */
+        public enum Kind {
+            /**
+             * Add {@link #getSubtree()} as a child of the node at the path, at {@link #getIndex()}.
+             */
+            INSERT,
+
+            /**
+             * Detach the node at the path, along with every node spanning from it.
+             */
+            REMOVE,
+
+            /**
+             * Replace the value of the node at the path with {@link #getValue()}.
+             */
+            UPDATE,
+
+            /**
+             * Move the node at the path to {@link #getIndex()} among its siblings,
+             * counted as if it had been taken out first.
+             */
+            MOVE
+        }
+
+        private final Kind kind;
+        private final List<T> path;
+        private final int index;
+        private final T value;
+        private final MTree<T> subtree;
+
+        private Edit(Kind kind, List<T> path, int index, T value, MTree<T> subtree) {
+            this.kind = kind;
+            this.path = path;
+            this.index = index;
+            this.value = value;
+            this.subtree = subtree;
+        }
+
+        /**
+         * @return what this edit does.
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the values leading from the root to the node this edit applies to,
+         * the root's own value left out; for an insertion, the path to the new parent.
+         */
+        public List<T> getPath() {
+            return path;
+        }
+
+        /**
+         * @return the position of the node among its siblings once the edit is applied,
+         * or {@code -1} for an update.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return the new value of the node, for an update; otherwise {@code null}.
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return the subtree to be inserted, for an insertion; otherwise {@code null}.
+         * The subtree belongs to the edit, and must not be modified.
+         */
+        public MTree<T> getSubtree() {
+            return subtree;
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+                case INSERT:
+                    return String.format("%s %s at %s[%d]", kind, subtree.DATA, path, index);
+                case UPDATE:
+                    return String.format("%s %s to %s", kind, path, value);
+                case MOVE:
+                    return String.format("%s %s to [%d]", kind, path, index);
                 default:
-                    res.append(c);
-                    break;
+                    return String.format("%s %s", kind, path);
             }
         }
-        return res.toString();
-    };
+    }
 
-    public static <K> String pln(K s) {
-        return '\n' + s.toString();
+    /**
+     * The edits that turn one tree into another, in the order they are to be applied.
+     * Instances are immutable, and may be shared between threads. A patch can be sent
+     * to another process with {@link #writeTo(DataOutput, Codec)} and read back there
+     * with {@link #readFrom(DataInput, Codec)}.
+     *
+     * @param <T> The type of the data stored in the tree.
+     * @see #diff(MTree)
+     * @see #apply(Patch)
+     */
+    public static final class Patch<T> implements Iterable<Edit<T>> {
+        private final List<Edit<T>> edits;
+
+        private Patch(List<Edit<T>> edits) {
+            this.edits = Collections.unmodifiableList(edits);
+        }
+
+        /**
+         * @return the amount of edits.
+         */
+        public int size() {
+            return edits.size();
+        }
+
+        /**
+         * @return whether both trees were equal, leaving nothing to do.
+         */
+        public boolean isEmpty() {
+            return edits.isEmpty();
+        }
+
+        /**
+         * @return the edits as a read-only {@link List}.
+         */
+        public List<Edit<T>> getEdits() {
+            return edits;
+        }
+
+        /**
+         * <p>Write this patch in a compact binary format, which {@link #readFrom(DataInput, Codec)}
+         * turns back into an equal patch.</p>
+         *
+         * <p>The format starts with a header (a magic number, a format version and the
+         * amount of edits), followed by every edit: its {@link Edit.Kind kind} as a byte,
+         * the length of its path and the values on it, then what the kind needs. An
+         * insertion holds its index and its subtree, in the format of
+         * {@link MTree#writeTo(DataOutput, Codec)}; a removal and a move hold their index;
+         * an update holds its new value. Counts and indices are variable-length integers,
+         * as written by {@link Codec#writeVarLong(DataOutput, long)}.</p>
+         *
+         * @param out   where to write the patch.
+         * @param codec how to write the values in the patch.
+         * @throws IOException if {@code out} or {@code codec} does.
+         */
+        public void writeTo(DataOutput out, Codec<? super T> codec) throws IOException {
+            out.writeInt(PATCH_MAGIC);
+            out.writeByte(PATCH_VERSION);
+            Codec.writeVarLong(out, edits.size());
+            for (Edit<T> edit : edits) {
+                out.writeByte(edit.kind.ordinal());
+                Codec.writeVarLong(out, edit.path.size());
+                for (T key : edit.path) {
+                    codec.write(key, out);
+                }
+                switch (edit.kind) {
+                    case INSERT:
+                        Codec.writeVarLong(out, edit.index);
+                        edit.subtree.writeTo(out, codec);
+                        break;
+                    case UPDATE:
+                        codec.write(edit.value, out);
+                        break;
+                    default:
+                        Codec.writeVarLong(out, edit.index);
+                        break;
+                }
+            }
+        }
+
+        /**
+         * Read a patch written by {@link #writeTo(DataOutput, Codec)}.
+         *
+         * @param in    where to read the patch from.
+         * @param codec how to read the values in the patch.
+         * @param <R>   The type of the data stored in the tree.
+         * @return the patch.
+         * @throws IOException if {@code in} or {@code codec} does, or if the input is not a
+         *                     patch in a supported version of the format.
+         */
+        public static <R> Patch<R> readFrom(DataInput in, Codec<? extends R> codec) throws IOException {
+            if (in.readInt() != PATCH_MAGIC) {
+                throw new IOException("Not a serialized MTree patch");
+            }
+            int version = in.readUnsignedByte();
+            if (version != PATCH_VERSION) {
+                throw new IOException("Unsupported format version: " + version);
+            }
+            int count = readCount(in, "edit count");
+
+            Edit.Kind[] kinds = Edit.Kind.values();
+            List<Edit<R>> edits = new ArrayList<>(Math.min(count, MAX_PRESIZE));
+            for (int i = 0; i < count; i++) {
+                int kind = in.readUnsignedByte();
+                if (kind >= kinds.length) {
+                    throw new IOException("Invalid kind of edit " + i + ": " + kind);
+                }
+                int length = readCount(in, "path length");
+                List<R> path = new ArrayList<>(Math.min(length, MAX_PRESIZE));
+                for (int j = 0; j < length; j++) {
+                    path.add(readValue(in, codec));
+                }
+                path = Collections.unmodifiableList(path);
+
+                switch (kinds[kind]) {
+                    case INSERT:
+                        int index = readCount(in, "index");
+                        edits.add(new Edit<>(Edit.Kind.INSERT, path, index, null, MTree.<R>readFrom(in, codec)));
+                        break;
+                    case UPDATE:
+                        edits.add(new Edit<>(Edit.Kind.UPDATE, path, -1, readValue(in, codec), null));
+                        break;
+                    default:
+                        edits.add(new Edit<>(kinds[kind], path, readCount(in, "index"), null, null));
+                        break;
+                }
+            }
+            return new Patch<>(edits);
+        }
+
+        /**
+         * @return a count or index read from {@code in}, checked to fit in an {@code int}.
+         */
+        private static int readCount(DataInput in, String what) throws IOException {
+            long value = Codec.readVarLong(in);
+            if (value < 0 || value > Integer.MAX_VALUE - 8) {
+                throw new IOException("Invalid " + what + ": " + value);
+            }
+            return (int) value;
+        }
+
+        /**
+         * @return a value read by {@code codec}, checked not to be {@code null}.
+         */
+        private static <R> R readValue(DataInput in, Codec<? extends R> codec) throws IOException {
+            R value = codec.read(in);
+            if (value == null) {
+                throw new IOException("Null value in patch");
+            }
+            return value;
+        }
+
+        @Override
+        public Iterator<Edit<T>> iterator() {
+            return edits.iterator();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s%s", this.getClass().getSimpleName(), edits);
+        }
     }
 
-    public static <K> String ln(K s) {
-        return s.toString() + '\n';
+    /**
+     * Limits on how much of a tree is expanded by {@link #render(Appendable, RenderOptions)}.
+     * Instances are immutable, and may be shared between threads.
+     */
+    public static final class RenderOptions {
+        /**
+         * Expands every node.
+         */
+        public static final RenderOptions UNLIMITED = new RenderOptions(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+        private final int maxDepth;
+        private final int maxChildren;
+
+        /**
+         * Construct a new set of render limits. Pass {@link Integer#MAX_VALUE} to leave
+         * either one unlimited.
+         *
+         * @param maxDepth    how many levels below the rendered node are expanded; the
+         *                    children of nodes at this depth are summarized instead.
+         * @param maxChildren how many children of each node are expanded; the rest are
+         *                    summarized instead.
+         * @throws IllegalArgumentException if {@code maxDepth} is negative, or
+         *                                  {@code maxChildren} is less than one.
+         */
+        public RenderOptions(int maxDepth, int maxChildren) {
+            if (maxDepth < 0) {
+                throw new IllegalArgumentException("Negative depth: " + maxDepth);
+            }
+            if (maxChildren < 1) {
+                throw new IllegalArgumentException("Non-positive child count: " + maxChildren);
+            }
+            this.maxDepth = maxDepth;
+            this.maxChildren = maxChildren;
+        }
+
+        /**
+         * @return how many levels below the rendered node are expanded.
+         */
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        /**
+         * @return how many children of each node are expanded.
+         */
+        public int getMaxChildren() {
+            return maxChildren;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s{maxDepth=%d, maxChildren=%d}", this.getClass().getSimpleName(), maxDepth, maxChildren);
+        }
+    }
+
+    /**
+     * The order in which {@link #find(Object, MTree, SearchOrder)} visits nodes.
+     */
+    public enum SearchOrder {
+        /**
+         * Visit nodes level by level, so the first match is the shallowest one.
+         */
+        BREADTH_FIRST,
+
+        /**
+         * Visit nodes in preorder, so the first match is the first one printed by
+         * {@link #print()}.
+         */
+        DEPTH_FIRST
     }
 
     //
     // OVERRIDES
     //
 
+    /**
+     * Compare this subtree to another. Two nodes are equal if they hold equal values,
+     * and their children are equal, in the same order; where they sit in their trees
+     * does not matter. Subtrees that differ in size or {@link #subtreeHash()} are told
+     * apart without a traversal; otherwise both are walked side by side, without
+     * recursion, skipping any pair of nodes that are one and the same.
+     *
+     * @param o the object to compare to.
+     * @return whether {@code o} is an equal subtree.
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         MTree<?> that = (MTree<?>) o;
-        return Objects.equals(DATA, that.DATA) && Objects.equals(PARENT, that.PARENT) && Objects.equals(CHILDREN, that.CHILDREN);
+        if (this.size != that.size || this.subtreeHash() != that.subtreeHash()) return false;
+
+        ArrayDeque<MTree<?>> left = new ArrayDeque<>();
+        ArrayDeque<MTree<?>> right = new ArrayDeque<>();
+        left.push(this);
+        right.push(that);
+        while (!left.isEmpty()) {
+            MTree<?> a = left.pop();
+            MTree<?> b = right.pop();
+            if (a == b) continue;
+            if (a.hashValid && b.hashValid && a.hash != b.hash) return false;
+            if (!Objects.equals(a.DATA, b.DATA) || a.CHILDREN.size() != b.CHILDREN.size()) return false;
+            left.addAll(a.CHILDREN);
+            right.addAll(b.CHILDREN);
+        }
+        return true;
     }
 
     /**
-     * Get this object's hash code.
+     * Get this object's hash code, folded from {@link #subtreeHash()}. Like
+     * {@link #equals(Object)}, it depends on the whole subtree, so a node must not be
+     * modified while it is a key in a hashed collection.
      *
      * @return Get this object's hash code.
      */
     @Override
     public int hashCode() {
-        return Objects.hash(DATA, CHILDREN);
+        long h = subtreeHash();
+        return (int) (h ^ (h >>> 32));
     }
 
     /**
@@ -0,0 +1,554 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * <p>A compact, arena-backed counterpart to {@link MTree}, meant for trees with tens
+ * of millions of nodes. Rather than allocating an object per node, the arena stores
+ * the shape of the tree as parallel {@code int} columns (parent, first child, last
+ * child and next sibling) and the values in a single {@code Object[]}. Child lookups
+ * go through one open-addressing table shared by the whole arena, keyed by parent
+ * and value.</p>
+ *
+ * <p>Nodes are reached through {@link Node} handles, which are nothing more than an
+ * index into the arena and offer the same insert, search and render methods as
+ * {@link MTree}.</p>
+ * <p><pre>
+ *     MTreeArena&lt;String&gt; arena = new MTreeArena&lt;&gt;("Languages");
+ *     MTreeArena&lt;String&gt;.Node root = arena.root();
+ *     root.insert("Compiled", "Interpreted", "Esoteric");
+ *     root.getNode(0).insert("Java", "C++", "Go");
+ *     root.print();
+ * </pre></p>
+ *
+ * <p>Excluding the values themselves, a node costs around thirty bytes, against
+ * several hundred for an {@link MTree} node.</p>
+ *
+ * @param <T> The type of the data stored in the tree.
+ * @author github@mrodz
+ * @see MTree
+ * @since 8
+ */
+public class MTreeArena<T> {
+    /**
+     * Marks the absence of a node in the index columns.
+     */
+    private static final int NONE = -1;
+
+    /**
+     * The index of the parent of every node; {@link #NONE} for the root.
+     */
+    private int[] parent;
+
+    /**
+     * The index of the first child of every node, or {@link #NONE}.
+     */
+    private int[] firstChild;
+
+    /**
+     * The index of the last child of every node, or {@link #NONE}.
+     */
+    private int[] lastChild;
+
+    /**
+     * The index of the sibling following every node, or {@link #NONE}.
+     */
+    private int[] nextSibling;
+
+    /**
+     * The value stored in every node.
+     */
+    private Object[] values;
+
+    /**
+     * Open-addressing table of every node but the root, keyed by parent and value.
+     * Each slot holds a node index plus one, so that zero marks an empty slot.
+     */
+    private int[] slots;
+
+    /**
+     * The amount of nodes in the arena.
+     */
+    private int size;
+
+    /**
+     * Specify whether or any special characters should be escaped when
+     * getting a fancy {@link String} version of the table (preferred: {@code true}).
+     * @see MTree#cancelEscapeSequences
+     */
+    private boolean escapeCharacters = true;
+
+    /**
+     * How {@link TreeRenderer} walks the arena, one node index at a time.
+     */
+    private final TreeRenderer.Shape<Integer> shape = new TreeRenderer.Shape<Integer>() {
+        @Override
+        public int childCount(Integer node) {
+            int count = 0;
+            for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+                count++;
+            }
+            return count;
+        }
+
+        @Override
+        public Integer childAt(Integer parent, int index, Integer previous) {
+            return previous == null ? firstChild[parent] : nextSibling[previous];
+        }
+
+        @Override
+        public String label(Integer node) {
+            return values[node].toString();
+        }
+    };
+
+    //
+    // CONSTRUCTORS
+    //
+
+    /**
+     * Construct a new {@link MTreeArena} with a specific root node.
+     *
+     * @param root the value to serve as this tree's root.
+     */
+    public MTreeArena(T root) {
+        this(root, 16);
+    }
+
+    /**
+     * Construct a new {@link MTreeArena} with a specific root node, sized to hold a
+     * given amount of nodes before growing.
+     *
+     * @param root          the value to serve as this tree's root.
+     * @param expectedNodes how many nodes the tree is expected to hold.
+     */
+    public MTreeArena(T root, int expectedNodes) {
+        if (root == null) throw new NullPointerException("Root Node cannot be null");
+        int capacity = Math.max(expectedNodes, 1);
+        this.parent = new int[capacity];
+        this.firstChild = new int[capacity];
+        this.lastChild = new int[capacity];
+        this.nextSibling = new int[capacity];
+        this.values = new Object[capacity];
+        this.slots = new int[tableSizeFor(capacity)];
+        allocate(root, NONE);
+    }
+
+    /**
+     * Copy an {@link MTree} into a new arena, preserving the order of every node's children.
+     *
+     * @param tree the tree to copy.
+     * @param <R>  The type of the data stored in the tree.
+     * @return the arena.
+     */
+    public static <R> MTreeArena<R> copyOf(MTree<R> tree) {
+        MTreeArena<R> arena = new MTreeArena<>(tree.getNodeValue());
+        List<MTree<R>> pending = new ArrayList<>();
+        List<Integer> targets = new ArrayList<>();
+        pending.add(tree);
+        targets.add(0);
+        while (!pending.isEmpty()) {
+            int last = pending.size() - 1;
+            MTree<R> source = pending.remove(last);
+            int target = targets.remove(last);
+            for (MTree<R> child : source.getChildren()) {
+                pending.add(child);
+                targets.add(arena.allocate(child.getNodeValue(), target));
+            }
+        }
+        return arena;
+    }
+
+    //
+    // ARENA
+    //
+
+    /**
+     * Get the root of this tree.
+     *
+     * @return a handle to the root node.
+     */
+    public Node root() {
+        return new Node(0);
+    }
+
+    /**
+     * Get the amount of nodes in this tree.
+     *
+     * @return the amount of nodes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Append a node to the arena and link it to its parent. Callers are expected to have
+     * checked for duplicates already.
+     *
+     * @param value  the value of the node.
+     * @param parent the index of the parent, or {@link #NONE} for the root.
+     * @return the index of the new node.
+     */
+    private int allocate(Object value, int parent) {
+        if (size == values.length) {
+            grow();
+        }
+
+        int node = size++;
+        this.values[node] = value;
+        this.parent[node] = parent;
+        this.firstChild[node] = NONE;
+        this.lastChild[node] = NONE;
+        this.nextSibling[node] = NONE;
+
+        if (parent != NONE) {
+            if (this.lastChild[parent] == NONE) {
+                this.firstChild[parent] = node;
+            } else {
+                this.nextSibling[this.lastChild[parent]] = node;
+            }
+            this.lastChild[parent] = node;
+            link(node);
+        }
+        return node;
+    }
+
+    /**
+     * Grow every column by half, and rehash the child table to match.
+     */
+    private void grow() {
+        int capacity = values.length + (values.length >> 1) + 1;
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        lastChild = Arrays.copyOf(lastChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        values = Arrays.copyOf(values, capacity);
+
+        int tableSize = tableSizeFor(capacity);
+        if (tableSize > slots.length) {
+            slots = new int[tableSize];
+            for (int node = 1; node < size; node++) {
+                link(node);
+            }
+        }
+    }
+
+    //
+    // CHILD TABLE
+    //
+
+    /**
+     * @return a power of two that keeps the child table at most half full.
+     */
+    private static int tableSizeFor(int capacity) {
+        int n = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 2;
+        return n > 0 ? n : 1 << 30;
+    }
+
+    /**
+     * @return the home slot of a node with the given parent and value.
+     */
+    private int slotOf(int parent, Object value) {
+        int h = parent * 0x9E3779B9 ^ value.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h & (slots.length - 1);
+    }
+
+    /**
+     * Add a node to the child table.
+     */
+    private void link(int node) {
+        int mask = slots.length - 1;
+        int i = slotOf(parent[node], values[node]);
+        while (slots[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        slots[i] = node + 1;
+    }
+
+    /**
+     * Remove a node from the child table, shifting back the entries that probed past it.
+     */
+    private void unlink(int node) {
+        int mask = slots.length - 1;
+        int i = slotOf(parent[node], values[node]);
+        while (slots[i] != node + 1) {
+            i = (i + 1) & mask;
+        }
+
+        for (int j = (i + 1) & mask; slots[j] != 0; j = (j + 1) & mask) {
+            int other = slots[j] - 1;
+            int home = slotOf(parent[other], values[other]);
+            // Move the entry into the hole unless its home lies cyclically within (i, j]
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                slots[i] = slots[j];
+                i = j;
+            }
+        }
+        slots[i] = 0;
+    }
+
+    /**
+     * Find the child of a node that holds a value.
+     *
+     * @return the index of the child, or {@link #NONE}.
+     */
+    private int lookup(int parent, Object value) {
+        int mask = slots.length - 1;
+        for (int i = slotOf(parent, value); slots[i] != 0; i = (i + 1) & mask) {
+            int node = slots[i] - 1;
+            if (this.parent[node] == parent && values[node].equals(value)) {
+                return node;
+            }
+        }
+        return NONE;
+    }
+
+    //
+    // GETTERS + SETTERS
+    //
+
+    /**
+     * Get whether this instance of {@link MTreeArena} is escaping character
+     * sequences in pretty Strings.
+     *
+     * @return whether it is or is not
+     */
+    public boolean isEscapingCharacters() {
+        return escapeCharacters;
+    }
+
+    /**
+     * Set whether this instance of {@link MTreeArena} is escaping character
+     * sequences in pretty Strings.
+     *
+     * @param escapeCharacters the value
+     */
+    public void setEscapingCharacters(boolean escapeCharacters) {
+        this.escapeCharacters = escapeCharacters;
+    }
+
+    /**
+     * A handle to a single node of an {@link MTreeArena}. Handles hold no state of their
+     * own besides the index of the node, so they are cheap to create and two handles to
+     * the same node are {@link #equals(Object) equal}.
+     */
+    public final class Node {
+        /**
+         * The index of this node in the arena's columns.
+         */
+        private final int id;
+
+        private Node(int id) {
+            this.id = id;
+        }
+
+        /**
+         * Create nodes to be added to this node from the raw input type (varargs).
+         *
+         * @param nodes the raw data to be added to this node.
+         */
+        @SafeVarargs
+        public final void insert(T... nodes) {
+            for (T node : nodes) {
+                if (node == null) {
+                    throw new NullPointerException("null input");
+                }
+            }
+            for (T node : nodes) {
+                if (lookup(id, node) != NONE) {
+                    throw new IllegalArgumentException("Duplicate entry into tree: " + node);
+                }
+                allocate(node, id);
+            }
+        }
+
+        /**
+         * Exclusively search the children that only span immediately from this node
+         * (ie. depth of one) for a node with a matching value.
+         *
+         * @param data The object to be matched
+         * @return An {@link Optional} containing the node with the matching value
+         * to the object supplied, if found; otherwise, {@link Optional#empty()}
+         */
+        public Optional<Node> searchChildrenFor(final T data) {
+            int child = lookup(id, data);
+            return child == NONE ? Optional.empty() : Optional.of(new Node(child));
+        }
+
+        /**
+         * Search <u>every</u> child connected to this node for a node with a matching value.
+         * This method will return the shallowest match exclusively, to avoid mix-ups.
+         *
+         * @param data The object to be matched
+         * @return An {@link Optional} containing the node with the matching value
+         * to the object supplied, if found; otherwise, {@link Optional#empty()}
+         */
+        public Optional<Node> deepSearchChildrenFor(final T data) {
+            if (Objects.equals(values[id], data)) {
+                return Optional.of(this);
+            }
+
+            // Breadth-first, so the first child table hit is the shallowest match
+            int[] queue = new int[16];
+            int head = 0, tail = 0;
+            queue[tail++] = id;
+            while (head < tail) {
+                int current = queue[head++];
+                int match = lookup(current, data);
+                if (match != NONE) {
+                    return Optional.of(new Node(match));
+                }
+                for (int child = firstChild[current]; child != NONE; child = nextSibling[child]) {
+                    if (tail == queue.length) {
+                        // Reclaim the consumed head of the queue before growing it
+                        System.arraycopy(queue, head, queue, 0, tail - head);
+                        tail -= head;
+                        head = 0;
+                        if (tail == queue.length) {
+                            queue = Arrays.copyOf(queue, queue.length << 1);
+                        }
+                    }
+                    queue[tail++] = child;
+                }
+            }
+
+            // Cannot find value
+            return Optional.empty();
+        }
+
+        /**
+         * Get the Nth child to this node. Children are linked to one another, so this
+         * takes time proportional to the index.
+         *
+         * @param index an {@code int} index
+         * @return the node at the specified index.
+         * @throws IndexOutOfBoundsException if the index supplied is greater than the total amount
+         *                                   of child nodes connected to this node, or less than zero.
+         */
+        public Node getNode(int index) throws IndexOutOfBoundsException {
+            if (index >= 0) {
+                int i = 0;
+                for (int child = firstChild[id]; child != NONE; child = nextSibling[child]) {
+                    if (i++ == index) {
+                        return new Node(child);
+                    }
+                }
+            }
+            throw new IndexOutOfBoundsException("Index: " + index);
+        }
+
+        /**
+         * Get the actual value stored in this node.
+         *
+         * @return the data
+         */
+        @SuppressWarnings("unchecked")
+        public T getNodeValue() {
+            return (T) values[id];
+        }
+
+        /**
+         * Update the actual value stored in this node.
+         *
+         * @param data the data
+         * @throws IllegalArgumentException if a sibling to this node already holds the value.
+         */
+        public void setNodeValue(T data) {
+            if (data == null) throw new NullPointerException("null input");
+            int parent = MTreeArena.this.parent[id];
+            if (parent == NONE) {
+                values[id] = data;
+            } else if (!values[id].equals(data)) {
+                if (lookup(parent, data) != NONE) {
+                    throw new IllegalArgumentException("Duplicate entry into tree: " + data);
+                }
+                unlink(id);
+                values[id] = data;
+                link(id);
+            }
+        }
+
+        /**
+         * Get this node's parent.
+         *
+         * @return the parent, or {@code null} if this is the root node.
+         */
+        public Node getParent() {
+            int parent = MTreeArena.this.parent[id];
+            return parent == NONE ? null : new Node(parent);
+        }
+
+        /**
+         * Get the children to this node as a {@link List}. The list is a copy,
+         * built on every call.
+         *
+         * @return the children
+         */
+        public List<Node> getChildren() {
+            List<Node> children = new ArrayList<>();
+            for (int child = firstChild[id]; child != NONE; child = nextSibling[child]) {
+                children.add(new Node(child));
+            }
+            return children;
+        }
+
+        /**
+         * Write this node's content to an {@link Appendable}, in the same format as
+         * {@link MTree#render(Appendable)}. The traversal follows the child and sibling
+         * columns, so it runs in constant stack space at any depth.
+         *
+         * @param out where to write the tree.
+         * @throws IOException if {@code out} does.
+         */
+        public void render(Appendable out) throws IOException {
+            TreeRenderer.render(id, shape, escapeCharacters, out);
+        }
+
+        /**
+         * Print this node's content in a natural, easy to follow manner.
+         *
+         * @see #render(Appendable)
+         */
+        public void print() {
+            TreeRenderer.print(id, shape, escapeCharacters);
+        }
+
+        /**
+         * Get this node's content in a fancy format.
+         *
+         * @return a large formatted {@link String}
+         * @see #print()
+         */
+        public String getFancyString() {
+            return TreeRenderer.fancyString(id, shape, escapeCharacters);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof MTreeArena.Node)) return false;
+            MTreeArena<?>.Node that = (MTreeArena<?>.Node) o;
+            return id == that.id && arena() == that.arena();
+        }
+
+        private MTreeArena<T> arena() {
+            return MTreeArena.this;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(values[id]);
+        }
+    }
+}
@@ -0,0 +1,1028 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * <p>Behaviour checks for {@link MTree} and the other tree backends. Every check is a
+ * static method that throws an {@link AssertionError} when the behaviour it covers is
+ * broken; {@link #main(String[])} runs all of them.</p>
+ * <p><pre>
+ *     javac *.java &amp;&amp; java MTreeTest
+ * </pre></p>
+ *
+ * @author github@mrodz
+ * @see MTree
+ */
+public class MTreeTest {
+    /**
+     * The depth of the chains used to check that nothing recurses once per level.
+     */
+    private static final int DEEP_CHAIN = 50_000;
+
+    /**
+     * The depth of the chains that are rendered in full.
+     */
+    private static final int RENDERED_CHAIN = 3_000;
+
+    public static void main(String[] args) {
+        run("parallelFind on a deep chain", MTreeTest::parallelFindOnDeepChain);
+        run("parallelFindAll on a deep chain", MTreeTest::parallelFindAllOnDeepChain);
+        run("parallel and sequential search agree", MTreeTest::parallelSearchMatchesSequential);
+        run("getChildren is read-only", MTreeTest::childrenAreReadOnly);
+        run("inserting an ancestor is rejected", MTreeTest::insertRejectsAncestors);
+        run("inserting an ancestor is rejected by indexed and other trees", MTreeTest::otherTreesRejectAncestors);
+        run("entries keep the order of the children", MTreeTest::entriesFollowChildren);
+        run("preorder index agrees with the preorder iterator", MTreeTest::preorderIndexMatchesIterator);
+        run("render limits cut off depth and fanout", MTreeTest::renderLimitsSummarize);
+        run("findAll agrees with deepSearchChildrenFor", MTreeTest::findAllMatchesDeepSearch);
+        run("rendered windows join into the full render", MTreeTest::renderRangeMatchesRender);
+        run("traversals visit nodes in their documented order", MTreeTest::traversalOrders);
+        run("diff and apply turn one tree into the other", MTreeTest::diffThenApply);
+        run("patch round trip", MTreeTest::patchRoundTrip);
+        run("serialization round trip", MTreeTest::serializationRoundTrip);
+        run("serialization rejects corrupt input", MTreeTest::serializationRejectsCorruptInput);
+        run("print encodes with the charset of System.out", MTreeTest::printUsesConsoleCharset);
+        run("escaping maps every special character to its own sequence", MTreeTest::escapingRoundTrips);
+        run("other trees render like MTree", MTreeTest::otherTreesRenderLikeMTree);
+        run("parallel and sequential render agree", MTreeTest::parallelRenderMatchesSequential);
+        run("concurrent inserts", MTreeTest::concurrentInserts);
+        run("locking a ConcurrentMTree does not block its writers", MTreeTest::concurrentWritersIgnoreTreeMonitor);
+        run("cached render follows changes", MTreeTest::renderCacheFollowsChanges);
+        run("sequential and parallel path loading agree", MTreeTest::pathLoadersAgree);
+        run("freeze agrees with the tree it copies", MTreeTest::frozenMatchesMTree);
+        run("freeze on a deep chain", MTreeTest::frozenDeepChain);
+        run("MappedMTree agrees with the tree it was written from", MTreeTest::mappedMatchesMTree);
+        run("IntMTree and LongMTree agree with MTree", MTreeTest::primitiveTreesMatchMTree);
+        run("IntMTree and LongMTree children are snapshots", MTreeTest::primitiveChildrenAreSnapshots);
+        System.out.println("All checks passed");
+    }
+
+    //
+    // CHECKS
+    //
+
+    static void parallelFindOnDeepChain() {
+        MTree<String> chain = chain(DEEP_CHAIN);
+        Optional<MTree<String>> match = chain.parallelFind("n" + (DEEP_CHAIN - 1));
+        check(match.isPresent() && match.get().getChildren().isEmpty(), "deepest node not found");
+        check(!chain.parallelFind("missing").isPresent(), "found a missing value");
+    }
+
+    static void parallelFindAllOnDeepChain() {
+        MTree<String> chain = chain(DEEP_CHAIN);
+        List<MTree<String>> matches = chain.parallelFindAll(value -> value.endsWith("7"));
+        check(matches.size() == DEEP_CHAIN / 10, "wrong amount of matches: " + matches.size());
+        check(matches.equals(chain.findAll(value -> value.endsWith("7")).collect(Collectors.toList())),
+                "matches out of preorder");
+    }
+
+    static void parallelSearchMatchesSequential() {
+        MTree<String> tree = wide(200_000);
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            String value = random.nextBoolean() ? "c" + random.nextInt(12) : "d" + random.nextInt(220_000);
+            check(MTree.find(value, tree).equals(tree.parallelFind(value)), "parallelFind differs for " + value);
+        }
+        check(tree.findAll(value -> value.startsWith("c1")).collect(Collectors.toList())
+                .equals(tree.parallelFindAll(value -> value.startsWith("c1"))), "parallelFindAll differs");
+    }
+
+    static void childrenAreReadOnly() {
+        MTree<String> tree = wide(1_000);
+        List<MTree<String>> children = tree.getChildren();
+        try {
+            children.add(new MTree<>("x"));
+            throw new AssertionError("getChildren accepted add");
+        } catch (UnsupportedOperationException expected) {
+            // The list cannot bypass insert
+        }
+        try {
+            children.remove(0);
+            throw new AssertionError("getChildren accepted remove");
+        } catch (UnsupportedOperationException expected) {
+            // The list cannot bypass remove
+        }
+
+        long size = tree.size();
+        tree.insert("x");
+        checkEquals(size + 1, tree.size(), "size after insert");
+        checkEquals("x", children.get(children.size() - 1).getNodeValue(), "view does not follow insert");
+    }
+
+    static void insertRejectsAncestors() {
+        MTree<String> root = new MTree<>("r");
+        root.insert("c");
+        root.getNode(0).insert("g");
+        MTree<String> grandchild = root.getNode(0).getNode(0);
+        String before = root.getFancyString();
+
+        checkIllegal(() -> root.insert(root), "insert below itself");
+        checkIllegal(() -> root.getNode(0).insert(root), "insert of the root below its child");
+        checkIllegal(() -> grandchild.insert(root), "insert of the root below its grandchild");
+        checkIllegal(() -> grandchild.insert(0, root), "positional insert of the root below its grandchild");
+        checkEquals(before, root.getFancyString(), "tree after rejected inserts");
+        checkEquals(3L, root.size(), "size after rejected inserts");
+
+        // A detached subtree can still go anywhere, including below its old parent
+        MTree<String> child = root.remove("c").get();
+        grandchild.insert("h");
+        root.insert(child);
+        checkEquals(4L, root.size(), "size after moving a subtree back");
+    }
+
+    static void otherTreesRejectAncestors() {
+        MTree<String> indexed = wide(1_000);
+        indexed.setIndexed(true);
+        MTree<String> leaf = indexed.deepSearchChildrenFor("d999").get();
+        checkIllegal(() -> leaf.insert(indexed), "insert of an indexed root below its leaf");
+        check(leaf.getChildren().isEmpty(), "leaf gained a child");
+        checkEquals(leaf, indexed.deepSearchChildrenFor("d999").orElse(null), "indexed search after a rejected insert");
+        check(!indexed.deepSearchChildrenFor("missing").isPresent(), "index found a missing value");
+
+        ConcurrentMTree<String> concurrent = new ConcurrentMTree<>("r");
+        concurrent.insert("c");
+        ConcurrentMTree<String> concurrentChild = concurrent.searchChildrenFor("c").get();
+        checkIllegal(() -> concurrentChild.insert(concurrent), "ConcurrentMTree insert of the root below its child");
+        check(concurrent.getParent() == null, "ConcurrentMTree root gained a parent");
+
+        IntMTree ints = new IntMTree(0);
+        ints.insert(1);
+        checkIllegal(() -> ints.getNode(0).insert(ints), "IntMTree insert of the root below its child");
+        checkIllegal(() -> ints.insert(ints), "IntMTree insert below itself");
+        LongMTree longs = new LongMTree(0);
+        longs.insert(1);
+        checkIllegal(() -> longs.getNode(0).insert(longs), "LongMTree insert of the root below its child");
+        check(ints.getParent() == null && longs.getParent() == null, "primitive root gained a parent");
+    }
+
+    static void entriesFollowChildren() {
+        MTree<String> tree = new MTree<>("r");
+        tree.insert("a", "b", "c");
+        tree.getNode(0).setNodeValue("z");
+        tree.insert(1, new MTree<>("y"));
+        checkEquals(Arrays.asList("z", "y", "b", "c"), new ArrayList<>(tree.getEntries()), "entries after a rename");
+
+        Random random = new Random(6);
+        MTree<String> wide = wide(2_000);
+        mutate(wide, random, 2_000);
+        for (Iterator<MTree<String>> nodes = wide.preorder(); nodes.hasNext(); ) {
+            MTree<String> node = nodes.next();
+            List<String> children = node.getChildren().stream().map(MTree::getNodeValue).collect(Collectors.toList());
+            checkEquals(children, new ArrayList<>(node.getEntries()), "entries of " + node.getNodeValue());
+            check(children.stream().allMatch(node.getEntries()::contains), "entries missing a child value");
+        }
+        check(!tree.getEntries().contains("a"), "entries kept a renamed value");
+        try {
+            tree.getEntries().remove("z");
+            throw new AssertionError("getEntries accepted remove");
+        } catch (UnsupportedOperationException expected) {
+            // The set cannot bypass remove
+        }
+    }
+
+    static void preorderIndexMatchesIterator() {
+        MTree<String> tree = wide(5_000);
+        tree.getNode(3).remove("b3");
+        tree.getNode(7).getNode(0).insert("e", "f");
+        long index = 0;
+        for (Iterator<MTree<String>> nodes = tree.preorder(); nodes.hasNext(); index++) {
+            MTree<String> node = nodes.next();
+            check(tree.nodeAtPreorderIndex(index) == node, "wrong node at preorder index " + index);
+            checkEquals(index, tree.preorderIndexOf(node), "preorder index");
+        }
+        checkEquals(index, tree.size(), "size");
+    }
+
+    static void renderLimitsSummarize() {
+        MTree<String> tree = MTree.fromPaths("r", Stream.of("a/a1/a11", "a/a2", "b", "c/c1", "c/c2", "c/c3"), "/");
+        String b = MTree.BRANCH, l = MTree.LAST_BRANCH, p = MTree.PIPE_SEGMENT, s = MTree.BLANK_SEGMENT;
+        checkEquals(tree.getFancyString(), tree.getFancyString(MTree.RenderOptions.UNLIMITED), "unlimited render");
+
+        checkEquals(String.join("\n",
+                "r",
+                b + "a",
+                p + l + "\u2026 3 more nodes",
+                b + "b",
+                l + "c",
+                s + l + "\u2026 3 more nodes"),
+                tree.getFancyString(new MTree.RenderOptions(1, Integer.MAX_VALUE)), "depth cut off");
+
+        checkEquals(String.join("\n",
+                "r",
+                b + "a",
+                p + b + "a1",
+                p + p + l + "a11",
+                p + l + "a2",
+                b + "b",
+                l + "\u2026 4 more nodes"),
+                tree.getFancyString(new MTree.RenderOptions(Integer.MAX_VALUE, 2)), "fanout cut off");
+
+        checkEquals(String.join("\n",
+                "r",
+                b + "a",
+                p + b + "a1",
+                p + p + l + "\u2026 1 more node",
+                p + l + "\u2026 1 more node",
+                l + "\u2026 5 more nodes"),
+                tree.getFancyString(new MTree.RenderOptions(2, 1)), "depth and fanout cut off");
+
+        checkEquals("r\n" + l + "\u2026 9 more nodes", tree.getFancyString(new MTree.RenderOptions(0, 1)),
+                "depth limit of zero");
+        checkEquals("x", new MTree<>("x").getFancyString(new MTree.RenderOptions(0, 1)),
+                "depth limit of zero without children");
+        checkIllegal(() -> new MTree.RenderOptions(1, 0), "a fanout limit of zero");
+        checkIllegal(() -> new MTree.RenderOptions(-1, 1), "a negative depth limit");
+    }
+
+    static void findAllMatchesDeepSearch() {
+        MTree<String> tree = wide(5_000);
+        mutate(tree, new Random(12), 300);
+        Random random = new Random(13);
+        List<List<String>> queries = Arrays.asList(
+                Arrays.asList("root", "c3", "c3", "missing", "b7", "b7", "d42", "nope"),
+                IntStream.range(0, 6_000).mapToObj(i -> "d" + random.nextInt(5_500)).collect(Collectors.toList()),
+                Arrays.asList("missing", "missing"),
+                Arrays.<String>asList());
+        for (boolean indexed : new boolean[]{false, true}) {
+            tree.setIndexed(indexed);
+            for (List<String> query : queries) {
+                Map<String, MTree<String>> found = tree.findAll(query);
+                for (String value : query) {
+                    // The same node, not just an equal subtree
+                    check(tree.deepSearchChildrenFor(value).orElse(null) == found.get(value),
+                            "findAll differs for " + value + ", indexed " + indexed);
+                }
+                check(query.containsAll(found.keySet()), "findAll returned a value it was not asked for");
+            }
+        }
+    }
+
+    static void renderRangeMatchesRender() throws IOException {
+        MTree<String> tree = wide(5_000);
+        mutate(tree, new Random(4), 200);
+        String full = tree.getFancyString();
+        for (int window : new int[]{1, 7, 1_000}) {
+            StringBuilder joined = new StringBuilder();
+            for (long from = 0; from < tree.size(); from += window) {
+                if (from != 0) {
+                    joined.append('\n');
+                }
+                tree.renderRange(from, from + window, joined);
+            }
+            checkEquals(full, joined.toString(), "windows of " + window + " lines");
+        }
+        StringBuilder empty = new StringBuilder();
+        tree.renderRange(tree.size(), tree.size() + 10, empty);
+        checkEquals("", empty.toString(), "window past the end");
+    }
+
+    static void traversalOrders() {
+        MTree<String> tree = wide(20_000);
+        mutate(tree, new Random(14), 500);
+
+        // Reference orders, built from getChildren alone
+        List<MTree<String>> preorder = new ArrayList<>();
+        List<MTree<String>> postorder = new ArrayList<>();
+        ArrayDeque<MTree<String>> stack = new ArrayDeque<>();
+        ArrayDeque<Iterator<MTree<String>>> children = new ArrayDeque<>();
+        preorder.add(tree);
+        stack.push(tree);
+        children.push(tree.getChildren().iterator());
+        while (!stack.isEmpty()) {
+            if (children.peek().hasNext()) {
+                MTree<String> child = children.peek().next();
+                preorder.add(child);
+                stack.push(child);
+                children.push(child.getChildren().iterator());
+            } else {
+                postorder.add(stack.pop());
+                children.pop();
+            }
+        }
+        List<MTree<String>> levelOrder = new ArrayList<>();
+        levelOrder.add(tree);
+        for (int i = 0; i < levelOrder.size(); i++) {
+            levelOrder.addAll(levelOrder.get(i).getChildren());
+        }
+
+        checkSameNodes(preorder, toList(tree.preorder()), "preorder");
+        checkSameNodes(postorder, toList(tree.postorder()), "postorder");
+        checkSameNodes(levelOrder, toList(tree.levelOrder()), "level order");
+        checkSameNodes(preorder, tree.stream().collect(Collectors.toList()), "stream");
+        checkSameNodes(preorder, tree.parallelStream().collect(Collectors.toList()), "parallelStream encounter order");
+        checkEquals(tree.size(), tree.parallelStream().filter(node -> node.getNodeValue().startsWith("d")).count()
+                + tree.parallelStream().filter(node -> !node.getNodeValue().startsWith("d")).count(), "parallelStream count");
+
+        // Deep chains are walked without recursion
+        MTree<String> chain = chain(DEEP_CHAIN);
+        List<MTree<String>> down = toList(chain.preorder());
+        checkEquals(DEEP_CHAIN + 1, down.size(), "preorder of a chain");
+        List<MTree<String>> up = toList(chain.postorder());
+        Collections.reverse(up);
+        checkSameNodes(down, up, "postorder of a chain");
+        checkSameNodes(down, toList(chain.levelOrder()), "level order of a chain");
+        checkSameNodes(down, chain.parallelStream().collect(Collectors.toList()), "parallelStream of a chain");
+
+        // Splitting all the way down keeps the encounter order, and lopsided trees split evenly
+        checkSameNodes(preorder, splitAll(tree.stream().spliterator()), "fully split stream");
+        checkSameNodes(down, splitAll(chain.stream().spliterator()), "fully split stream of a chain");
+        Spliterator<MTree<String>> suffix = chain.stream().spliterator();
+        Spliterator<MTree<String>> prefix = suffix.trySplit();
+        check(prefix != null, "chain did not split");
+        checkEquals(DEEP_CHAIN + 1L, prefix.estimateSize() + suffix.estimateSize(), "sizes of a split chain");
+        check(Math.abs(prefix.estimateSize() - suffix.estimateSize()) <= 1, "uneven split of a chain: "
+                + prefix.estimateSize() + " and " + suffix.estimateSize());
+
+        MTree<String> comb = chain(1_000);
+        for (MTree<String> node : toList(comb.preorder())) {
+            node.insert("leaf");
+        }
+        checkSameNodes(toList(comb.preorder()), splitAll(comb.stream().spliterator()), "fully split stream of a comb");
+        checkSameNodes(toList(tree.findAll(value -> true, value -> value.startsWith("c3")).iterator()),
+                splitAll(tree.findAll(value -> true, value -> value.startsWith("c3")).spliterator()),
+                "fully split pruned stream");
+    }
+
+    static void diffThenApply() {
+        Random random = new Random(3);
+        for (int round = 0; round < 50; round++) {
+            MTree<String> source = wide(2_000);
+            MTree<String> target = copy(source);
+            mutate(target, random, 1 + random.nextInt(40));
+
+            MTree.Patch<String> patch = source.diff(target);
+            source.apply(patch);
+            checkEquals(target, source, "tree after applying " + patch);
+            checkEquals(target.getFancyString(), source.getFancyString(), "order after applying " + patch);
+            check(source.diff(target).isEmpty(), "equal trees still differ");
+        }
+    }
+
+    static void patchRoundTrip() throws IOException {
+        Random random = new Random(4);
+        for (int round = 0; round < 20; round++) {
+            MTree<String> source = wide(2_000);
+            MTree<String> target = copy(source);
+            mutate(target, random, 1 + random.nextInt(40));
+            MTree.Patch<String> patch = source.diff(target);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            patch.writeTo(new DataOutputStream(bytes), MTree.Codec.STRING);
+            MTree.Patch<String> read = MTree.Patch.readFrom(
+                    new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), MTree.Codec.STRING);
+            checkEquals(patch.toString(), read.toString(), "patch after round trip");
+
+            source.apply(read);
+            checkEquals(target.getFancyString(), source.getFancyString(), "tree after applying read patch");
+        }
+    }
+
+    static void serializationRoundTrip() throws IOException {
+        MTree<String> tree = wide(20_000);
+        tree.getNode(0).insert("{braces}", "line\nbreak", "\u00e9t\u00e9");
+        MTree<String> copy = copy(tree);
+        checkEquals(tree, copy, "tree after round trip");
+        checkEquals(tree.getFancyString(), copy.getFancyString(), "order after round trip");
+        checkEquals(tree.size(), copy.size(), "size after round trip");
+        checkEquals(tree.height(), copy.height(), "height after round trip");
+        checkEquals(tree.subtreeHash(), copy.subtreeHash(), "hash after round trip");
+        MTree<String> deep = tree.nodeAtPreorderIndex(tree.size() - 1);
+        checkEquals(deep.depth(), copy.nodeAtPreorderIndex(copy.size() - 1).depth(), "depth after round trip");
+
+        MTree<Long> numbers = new MTree<>(0L);
+        numbers.insert(Long.MIN_VALUE, Long.MAX_VALUE, -1L);
+        numbers.getNode(1).insert(1L << 40);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        numbers.writeTo(Channels.newChannel(bytes), MTree.Codec.LONG);
+        MTree<Long> read = MTree.readFrom(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())), MTree.Codec.LONG);
+        checkEquals(numbers.getFancyString(), read.getFancyString(), "longs after round trip");
+    }
+
+    static void serializationRejectsCorruptInput() throws IOException {
+        // A root claiming close to two billion children, in a one node tree
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x4D545245);
+        out.writeByte(1);
+        MTree.Codec.writeVarLong(out, 1);
+        MTree.Codec.STRING.write("root", out);
+        MTree.Codec.writeVarLong(out, Integer.MAX_VALUE - 8);
+        checkRejected(bytes.toByteArray(), "huge child count");
+
+        bytes = new ByteArrayOutputStream();
+        wide(100).writeTo(new DataOutputStream(bytes), MTree.Codec.STRING);
+        byte[] valid = bytes.toByteArray();
+        checkRejected(Arrays.copyOf(valid, valid.length / 2), "truncated input");
+        byte[] foreign = valid.clone();
+        foreign[0] ^= 1;
+        checkRejected(foreign, "wrong magic number");
+    }
+
+    static void printUsesConsoleCharset() throws IOException {
+        MTree<String> tree = wide(50);
+        tree.getNode(0).insert("\u00e9t\u00e9", "\u65e5\u672c", "tab\there");
+        String expected = tree.getFancyString() + System.lineSeparator();
+        checkEquals(expected, printed(tree::print), "MTree.print");
+        checkEquals(expected, printed(MTreeArena.copyOf(tree).root()::print), "MTreeArena.print");
+        checkEquals(expected, printed(tree.freeze().root()::print), "FrozenMTree.print");
+    }
+
+    static void escapingRoundTrips() throws IOException {
+        String[] values = {"", "plain", "\t", "\n", "\r", "\r\n", "a\tb\nc\rd", "\n\nlead", "trail\r\r",
+                "\u00e9t\u00e9\r\u65e5\u672c"};
+        for (String value : values) {
+            String escaped = MTree.cancelEscapeSequences.apply(value);
+            StringBuilder appended = new StringBuilder();
+            MTree.appendEscaped(value, appended);
+            checkEquals(escaped, appended.toString(), "appendEscaped of " + escaped);
+            check(escaped.indexOf('\t') < 0 && escaped.indexOf('\n') < 0 && escaped.indexOf('\r') < 0,
+                    "special character left in " + escaped);
+            String restored = escaped.replace("\\t", "\t").replace("\\n", "\n").replace("\\r", "\r");
+            checkEquals(value, restored, "escaped value mapped back");
+        }
+        check(MTree.cancelEscapeSequences.apply("plain") == "plain", "value without escapes was copied");
+        checkEquals("back\\slash", MTree.cancelEscapeSequences.apply("back\\slash"), "backslash");
+
+        // Every special character stays on its node's line
+        MTree<String> tree = new MTree<>("root");
+        tree.insert("carriage\rreturn", "line\nbreak", "tab\there");
+        checkEquals("root\n" + MTree.BRANCH + "carriage\\rreturn\n" + MTree.BRANCH + "line\\nbreak\n"
+                + MTree.LAST_BRANCH + "tab\\there", tree.getFancyString(), "escaped render");
+    }
+
+    static void otherTreesRenderLikeMTree() {
+        MTree<String> tree = wide(3_000);
+        mutate(tree, new Random(11), 300);
+        tree.getNode(1).insert("line\nbreak", "tab\there", "back\\slash");
+        tree.getNode(1).getNode(0).insert("\u00e9t\u00e9");
+        for (boolean escape : new boolean[]{true, false}) {
+            tree.setEscapingCharacters(escape);
+            String expected = tree.getFancyString();
+            MTreeArena<String> arena = MTreeArena.copyOf(tree);
+            arena.setEscapingCharacters(escape);
+            checkEquals(expected, arena.root().getFancyString(), "MTreeArena render, escaping " + escape);
+            ConcurrentMTree<String> concurrent = concurrentCopy(tree);
+            concurrent.setEscapingCharacters(escape);
+            checkEquals(expected, concurrent.getFancyString(), "ConcurrentMTree render, escaping " + escape);
+            FrozenMTree<String> frozen = tree.freeze();
+            frozen.setEscapingCharacters(escape);
+            checkEquals(expected, frozen.root().getFancyString(), "FrozenMTree render, escaping " + escape);
+        }
+
+        MTree<String> chain = chain(RENDERED_CHAIN);
+        String expected = chain.getFancyString();
+        checkEquals(expected, MTreeArena.copyOf(chain).root().getFancyString(), "MTreeArena render of a chain");
+        checkEquals(expected, concurrentCopy(chain).getFancyString(), "ConcurrentMTree render of a chain");
+        checkEquals(expected, chain.freeze().root().getFancyString(), "FrozenMTree render of a chain");
+    }
+
+    static void parallelRenderMatchesSequential() {
+        MTree<String> tree = wide(100_000);
+        checkEquals(tree.getFancyString(), tree.getFancyString(ForkJoinPool.commonPool()), "render of a broad tree");
+
+        // Every line of a chain is indented by its depth, so the output grows quadratically
+        MTree<String> chain = chain(RENDERED_CHAIN);
+        String rendered = chain.getFancyString();
+        checkEquals(rendered, chain.getFancyString(ForkJoinPool.commonPool()), "render of a deep chain");
+        check(rendered.endsWith("n" + (RENDERED_CHAIN - 1)), "deep chain render cut short");
+    }
+
+    static void concurrentInserts() throws InterruptedException {
+        ConcurrentMTree<String> tree = new ConcurrentMTree<>("root");
+        Thread[] writers = new Thread[8];
+        for (int w = 0; w < writers.length; w++) {
+            int writer = w;
+            writers[w] = new Thread(() -> {
+                for (int i = 0; i < 1_000; i++) {
+                    tree.insert("w" + writer + "-" + i);
+                    // Every writer also tries a value shared with the others
+                    try {
+                        tree.insert("shared" + i);
+                    } catch (IllegalArgumentException duplicate) {
+                        // Another writer got there first
+                    }
+                }
+            });
+            writers[w].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        checkEquals(writers.length * 1_000 + 1_000, tree.getChildren().size(), "children after concurrent inserts");
+        for (int i = 0; i < 1_000; i++) {
+            check(tree.searchChildrenFor("shared" + i).isPresent(), "lost shared" + i);
+        }
+    }
+
+    static void concurrentWritersIgnoreTreeMonitor() throws InterruptedException {
+        ConcurrentMTree<String> tree = new ConcurrentMTree<>("root");
+        Thread writer = new Thread(() -> tree.insert("child"));
+        synchronized (tree) {
+            writer.start();
+            writer.join(5_000);
+        }
+        check(!writer.isAlive(), "insert blocked by a caller holding the tree's monitor");
+        check(tree.searchChildrenFor("child").isPresent(), "insert lost");
+    }
+
+    static void renderCacheFollowsChanges() {
+        MTree<String> cached = wide(20_000);
+        MTree<String> plain = copy(cached);
+        cached.setRenderCaching(true);
+        checkEquals(plain.getFancyString(), cached.getFancyString(), "first cached render");
+
+        Random random = new Random(5);
+        for (int round = 0; round < 30; round++) {
+            // The same seed makes the same changes to both trees
+            long seed = random.nextLong();
+            mutate(cached, new Random(seed), 20);
+            mutate(plain, new Random(seed), 20);
+            checkEquals(plain.getFancyString(), cached.getFancyString(), "cached render after round " + round);
+        }
+    }
+
+    static void pathLoadersAgree() {
+        List<String> paths = IntStream.range(0, 50_000)
+                .mapToObj(i -> "a" + i % 37 + "//b" + i % 101 + "/c" + i % 7 + (i % 5 == 0 ? "/" : "/d" + i))
+                .collect(Collectors.toList());
+        MTree<String> sequential = MTree.fromPaths("root", paths.stream(), "/");
+        MTree<String> parallel = MTree.fromPaths("root", paths.stream(), "/", true);
+        MTree<String> inserted = new MTree<>("root");
+        for (String path : paths) {
+            MTree<String> node = inserted;
+            for (String key : path.split("/")) {
+                if (key.isEmpty()) {
+                    continue;
+                }
+                if (!node.searchChildrenFor(key).isPresent()) {
+                    node.insert(key);
+                }
+                node = node.searchChildrenFor(key).get();
+            }
+        }
+        checkEquals(inserted.getFancyString(), sequential.getFancyString(), "sequential load");
+        checkEquals(inserted.getFancyString(), parallel.getFancyString(), "parallel load");
+    }
+
+    static void frozenMatchesMTree() {
+        MTree<String> tree = wide(20_000);
+        mutate(tree, new Random(7), 500);
+        FrozenMTree<String> frozen = tree.freeze();
+        checkEquals(tree.size(), (long) frozen.size(), "size");
+        checkEquals(tree.getFancyString(), frozen.root().getFancyString(), "render");
+
+        // Pair every node with its copy, walking both trees in preorder
+        Map<MTree<String>, Integer> treeIndex = new IdentityHashMap<>();
+        Map<FrozenMTree<String>.Node, Integer> frozenIndex = new HashMap<>();
+        ArrayDeque<MTree<String>> nodes = new ArrayDeque<>();
+        ArrayDeque<FrozenMTree<String>.Node> copies = new ArrayDeque<>();
+        nodes.push(tree);
+        copies.push(frozen.root());
+        while (!nodes.isEmpty()) {
+            MTree<String> node = nodes.pop();
+            FrozenMTree<String>.Node copy = copies.pop();
+            treeIndex.put(node, treeIndex.size());
+            frozenIndex.put(copy, frozenIndex.size());
+            checkEquals(node.getNodeValue(), copy.getNodeValue(), "value");
+            checkEquals(node.getChildren().size(), copy.getChildren().size(), "child count of " + node.getNodeValue());
+            for (int i = node.getChildren().size() - 1; i >= 0; i--) {
+                MTree<String> child = node.getNode(i);
+                FrozenMTree<String>.Node childCopy = copy.getNode(i);
+                checkEquals(copy, childCopy.getParent(), "parent of " + child.getNodeValue());
+                checkEquals(childCopy, copy.searchChildrenFor(child.getNodeValue()).orElse(null),
+                        "child search for " + child.getNodeValue());
+                nodes.push(child);
+                copies.push(childCopy);
+            }
+        }
+        check(frozen.root().getParent() == null, "root has a parent");
+
+        Random random = new Random(8);
+        for (int i = 0; i < 300; i++) {
+            String value = random.nextBoolean() ? "c" + random.nextInt(9) : "x" + random.nextInt(1_000_000);
+            checkEquals(MTree.find(value, tree, MTree.SearchOrder.BREADTH_FIRST).map(treeIndex::get),
+                    frozen.root().find(value, MTree.SearchOrder.BREADTH_FIRST).map(frozenIndex::get),
+                    "breadth-first find for " + value);
+            checkEquals(MTree.find(value, tree, MTree.SearchOrder.DEPTH_FIRST).map(treeIndex::get),
+                    frozen.root().find(value, MTree.SearchOrder.DEPTH_FIRST).map(frozenIndex::get),
+                    "depth-first find for " + value);
+            checkEquals(tree.deepSearchChildrenFor(value).map(treeIndex::get),
+                    frozen.root().deepSearchChildrenFor(value).map(frozenIndex::get),
+                    "deep search for " + value);
+        }
+    }
+
+    static void frozenDeepChain() {
+        FrozenMTree<String> frozen = chain(DEEP_CHAIN).freeze();
+        FrozenMTree<String>.Node deepest = frozen.root().find("n" + (DEEP_CHAIN - 1), MTree.SearchOrder.DEPTH_FIRST)
+                .orElseThrow(() -> new AssertionError("deepest node not found"));
+        check(deepest.getChildren().isEmpty(), "deepest node has children");
+        int depth = 0;
+        for (FrozenMTree<String>.Node node = deepest; node.getParent() != null; node = node.getParent()) {
+            checkEquals("n" + (DEEP_CHAIN - 1 - depth), node.getNodeValue(), "value at depth " + depth);
+            depth++;
+        }
+        checkEquals(DEEP_CHAIN, depth, "depth of the deepest node");
+    }
+
+    static void mappedMatchesMTree() throws IOException {
+        MTree<String> tree = wide(20_000);
+        mutate(tree, new Random(9), 500);
+        tree.getNode(1).insert("line\nbreak", "tab\there");
+        Path file = Files.createTempFile("MTreeTest", ".mtree");
+        try {
+            MappedMTree.write(tree, file, MTree.Codec.STRING);
+            MappedMTree<String> mapped = MappedMTree.open(file, MTree.Codec.STRING);
+            checkEquals(tree.size(), (long) mapped.size(), "size");
+            checkEquals(tree.getFancyString(), mapped.root().getFancyString(), "render");
+            tree.setEscapingCharacters(false);
+            mapped.setEscapingCharacters(false);
+            checkEquals(tree.getFancyString(), mapped.root().getFancyString(), "render without escaping");
+            tree.setEscapingCharacters(true);
+
+            Map<MTree<String>, Integer> treeIndex = new IdentityHashMap<>();
+            Map<MappedMTree<String>.Node, Integer> mappedIndex = new HashMap<>();
+            ArrayDeque<MTree<String>> nodes = new ArrayDeque<>();
+            ArrayDeque<MappedMTree<String>.Node> copies = new ArrayDeque<>();
+            nodes.push(tree);
+            copies.push(mapped.root());
+            while (!nodes.isEmpty()) {
+                MTree<String> node = nodes.pop();
+                MappedMTree<String>.Node copy = copies.pop();
+                treeIndex.put(node, treeIndex.size());
+                mappedIndex.put(copy, mappedIndex.size());
+                checkEquals(node.getNodeValue(), copy.getNodeValue(), "value");
+                checkEquals(node.getChildren().size(), copy.getChildren().size(), "child count of " + node.getNodeValue());
+                for (int i = node.getChildren().size() - 1; i >= 0; i--) {
+                    MTree<String> child = node.getNode(i);
+                    MappedMTree<String>.Node childCopy = copy.getNode(i);
+                    checkEquals(copy, childCopy.getParent(), "parent of " + child.getNodeValue());
+                    checkEquals(childCopy, copy.searchChildrenFor(child.getNodeValue()).orElse(null),
+                            "child search for " + child.getNodeValue());
+                    nodes.push(child);
+                    copies.push(childCopy);
+                }
+            }
+
+            Random random = new Random(10);
+            for (int i = 0; i < 300; i++) {
+                String value = random.nextBoolean() ? "c" + random.nextInt(9) : "x" + random.nextInt(1_000_000);
+                checkEquals(tree.deepSearchChildrenFor(value).map(treeIndex::get),
+                        mapped.root().deepSearchChildrenFor(value).map(mappedIndex::get),
+                        "deep search for " + value);
+            }
+
+            // A file cut short is rejected rather than read past its end
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+            try {
+                MappedMTree.open(file, MTree.Codec.STRING);
+                throw new AssertionError("opened a truncated file");
+            } catch (IOException expected) {
+                // The value section is shorter than the offsets say
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    static void primitiveTreesMatchMTree() {
+        MTree<Integer> boxed = new MTree<>(-1);
+        IntMTree ints = new IntMTree(-1);
+        LongMTree longs = new LongMTree(-1);
+        // Enough children on the first levels to move them from scanning to the table
+        for (int i = 0; i < 40; i++) {
+            boxed.insert(i);
+            ints.insert(i);
+            longs.insert(i);
+            for (int j = 0; j < i; j++) {
+                boxed.getNode(i).insert(1_000 * i + j);
+                ints.getNode(i).insert(1_000 * i + j);
+                longs.getNode(i).insert(1_000 * i + j);
+            }
+        }
+
+        // Renaming has to keep the child tables in step, including negative values
+        for (int i = 0; i < 40; i += 3) {
+            boxed.getNode(i).setNodeValue(-i - 2);
+            ints.getNode(i).setNodeValue(-i - 2);
+            longs.getNode(i).setNodeValue(-i - 2);
+        }
+        checkEquals(boxed.getFancyString(), ints.getFancyString(), "IntMTree render");
+        checkEquals(boxed.getFancyString(), longs.getFancyString(), "LongMTree render");
+
+        for (int value = -45; value < 40_000; value += 7) {
+            MTree<Integer> expected = MTree.find(value, boxed).orElse(null);
+            IntMTree actualInt = ints.deepSearchChildrenFor(value);
+            LongMTree actualLong = longs.deepSearchChildrenFor(value);
+            checkEquals(expected == null ? null : expected.getNodeValue(),
+                    actualInt == null ? null : actualInt.getNodeValue(), "IntMTree deep search for " + value);
+            checkEquals(expected == null ? null : expected.getNodeValue().longValue(),
+                    actualLong == null ? null : actualLong.getNodeValue(), "LongMTree deep search for " + value);
+            check((ints.searchChildrenFor(value) != null) == (longs.searchChildrenFor(value) != null),
+                    "child search disagrees for " + value);
+        }
+        check(ints.searchChildrenFor(3) == null && ints.searchChildrenFor(-5) != null, "renamed child lookup");
+        check(longs.searchChildrenFor(1L << 40) == null, "found a value no node holds");
+
+        try {
+            ints.getNode(1).setNodeValue(-5);
+            throw new AssertionError("setNodeValue accepted a sibling's value");
+        } catch (IllegalArgumentException expected) {
+            // The value already belongs to another child
+        }
+        try {
+            ints.insert(ints.getNode(2));
+            throw new AssertionError("insert accepted a node from a tree");
+        } catch (IllegalArgumentException expected) {
+            // The node already has a parent
+        }
+    }
+
+    static void primitiveChildrenAreSnapshots() {
+        IntMTree ints = new IntMTree(0);
+        LongMTree longs = new LongMTree(0);
+        ints.insert(1, 2, 3);
+        longs.insert(1, 2, 3);
+        List<IntMTree> intChildren = ints.getChildren();
+        List<LongMTree> longChildren = longs.getChildren();
+
+        // Enough inserts to grow the child arrays past the ones the lists were taken from
+        for (int i = 4; i < 100; i++) {
+            ints.insert(i);
+            longs.insert(i);
+        }
+        checkEquals(3, intChildren.size(), "IntMTree children after inserts");
+        checkEquals(3, longChildren.size(), "LongMTree children after inserts");
+        checkEquals(3, intChildren.get(2).getNodeValue(), "IntMTree snapshot content");
+        checkEquals(3L, longChildren.get(2).getNodeValue(), "LongMTree snapshot content");
+        checkEquals(99, ints.getChildren().size(), "fresh IntMTree children");
+        try {
+            intChildren.set(0, new IntMTree(5));
+            throw new AssertionError("getChildren accepted set");
+        } catch (UnsupportedOperationException expected) {
+            // The list cannot bypass insert
+        }
+    }
+
+    //
+    // FIXTURES
+    //
+
+    /**
+     * Build a tree that is a single path, {@code "root"} followed by {@code "n0"} to
+     * {@code "n<depth - 1>"}. The chain is loaded through {@link MTree#readFrom}, which
+     * links nodes in a single pass at any depth.
+     *
+     * @param depth the amount of nodes below the root.
+     * @return the chain.
+     */
+    static MTree<String> chain(int depth) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0x4D545245);
+            out.writeByte(1);
+            MTree.Codec.writeVarLong(out, depth + 1L);
+            MTree.Codec.STRING.write("root", out);
+            MTree.Codec.writeVarLong(out, depth == 0 ? 0 : 1);
+            for (int i = 0; i < depth; i++) {
+                MTree.Codec.STRING.write("n" + i, out);
+                MTree.Codec.writeVarLong(out, i == depth - 1 ? 0 : 1);
+            }
+            return MTree.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), MTree.Codec.STRING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Build a broad tree four levels deep, where values below the first level repeat
+     * across subtrees.
+     *
+     * @param paths the amount of paths loaded.
+     * @return the tree.
+     */
+    static MTree<String> wide(int paths) {
+        return MTree.fromPaths("root", IntStream.range(0, paths)
+                .mapToObj(i -> "a" + i % 100 + "/b" + i % 1000 + "/c" + i % 7 + "/d" + i), "/");
+    }
+
+    /**
+     * Copy a tree through {@link MTree#writeTo(DataOutput, MTree.Codec)} and
+     * {@link MTree#readFrom(DataInput, MTree.Codec)}.
+     *
+     * @param tree the tree to copy.
+     * @return the copy.
+     */
+    static MTree<String> copy(MTree<String> tree) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            tree.writeTo(new DataOutputStream(bytes), MTree.Codec.STRING);
+            return MTree.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), MTree.Codec.STRING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Apply random inserts, removals, renames and moves to a tree.
+     *
+     * @param tree    the tree to change.
+     * @param random  the source of the changes.
+     * @param changes how many changes to make.
+     */
+    /**
+     * Copy a tree into a {@link ConcurrentMTree}, node by node.
+     */
+    static ConcurrentMTree<String> concurrentCopy(MTree<String> tree) {
+        ConcurrentMTree<String> copy = new ConcurrentMTree<>(tree.getNodeValue());
+        ArrayDeque<MTree<String>> nodes = new ArrayDeque<>();
+        ArrayDeque<ConcurrentMTree<String>> copies = new ArrayDeque<>();
+        nodes.push(tree);
+        copies.push(copy);
+        while (!nodes.isEmpty()) {
+            MTree<String> node = nodes.pop();
+            ConcurrentMTree<String> parent = copies.pop();
+            for (MTree<String> child : node.getChildren()) {
+                parent.insert(child.getNodeValue());
+                nodes.push(child);
+                copies.push(parent.searchChildrenFor(child.getNodeValue()).get());
+            }
+        }
+        return copy;
+    }
+
+    static void mutate(MTree<String> tree, Random random, int changes) {
+        for (int i = 0; i < changes; i++) {
+            MTree<String> node = tree.nodeAtPreorderIndex(random.nextInt((int) tree.size()));
+            List<MTree<String>> children = node.getChildren();
+            String fresh = "x" + random.nextInt(1_000_000);
+            switch (random.nextInt(4)) {
+                case 0:
+                    if (!node.searchChildrenFor(fresh).isPresent()) {
+                        node.insert(random.nextInt(children.size() + 1), new MTree<>(fresh));
+                    }
+                    break;
+                case 1:
+                    if (!children.isEmpty()) {
+                        node.remove(children.get(random.nextInt(children.size())).getNodeValue());
+                    }
+                    break;
+                case 2:
+                    if (node != tree && !node.getParent().searchChildrenFor(fresh).isPresent()) {
+                        node.setNodeValue(fresh);
+                    }
+                    break;
+                default:
+                    if (children.size() > 1) {
+                        MTree<String> child = node.remove(children.get(random.nextInt(children.size())).getNodeValue()).get();
+                        node.insert(random.nextInt(children.size() + 1), child);
+                    }
+                    break;
+            }
+        }
+    }
+
+    //
+    // HELPERS
+    //
+
+    /**
+     * Capture what an action prints to {@link System#out}, through a stream encoding
+     * UTF-8 whatever the platform default is.
+     *
+     * @return the text printed.
+     */
+    static String printed(Runnable action) throws IOException {
+        PrintStream console = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true, StandardCharsets.UTF_8.name()));
+        try {
+            action.run();
+        } finally {
+            System.setOut(console);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check that {@link MTree#readFrom(DataInput, MTree.Codec)} fails on some input with
+     * an {@link IOException}, and nothing else.
+     */
+    static void checkRejected(byte[] input, String what) {
+        try {
+            MTree.readFrom(new DataInputStream(new ByteArrayInputStream(input)), MTree.Codec.STRING);
+        } catch (IOException expected) {
+            return;
+        }
+        throw new AssertionError("accepted " + what);
+    }
+
+    /**
+     * Check that an action fails with an {@link IllegalArgumentException}.
+     */
+    static void checkIllegal(Runnable action, String what) {
+        try {
+            action.run();
+        } catch (IllegalArgumentException expected) {
+            return;
+        }
+        throw new AssertionError("accepted " + what);
+    }
+
+    static <T> List<T> toList(Iterator<T> iterator) {
+        List<T> list = new ArrayList<>();
+        iterator.forEachRemaining(list::add);
+        return list;
+    }
+
+    /**
+     * Split a {@link Spliterator} until no part splits any further, and collect the parts in order.
+     */
+    static <T> List<T> splitAll(Spliterator<T> spliterator) {
+        List<T> list = new ArrayList<>();
+        splitAll(spliterator, list);
+        return list;
+    }
+
+    private static <T> void splitAll(Spliterator<T> spliterator, List<T> list) {
+        for (Spliterator<T> prefix; (prefix = spliterator.trySplit()) != null; ) {
+            splitAll(prefix, list);
+        }
+        spliterator.forEachRemaining(list::add);
+    }
+
+    /**
+     * Check that two lists hold the very same objects, in the same order.
+     */
+    static <T> void checkSameNodes(List<T> expected, List<T> actual, String what) {
+        checkEquals(expected.size(), actual.size(), what + " size");
+        for (int i = 0; i < expected.size(); i++) {
+            if (expected.get(i) != actual.get(i)) {
+                throw new AssertionError(what + ": different node at position " + i);
+            }
+        }
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    static <T> void checkEquals(T expected, T actual, String message) {
+        if (!Objects.equals(expected, actual)) {
+            throw new AssertionError(message + ": expected <" + expected + "> but was <" + actual + ">");
+        }
+    }
+
+    /**
+     * A check, which may throw checked exceptions.
+     */
+    private interface Check {
+        void run() throws Exception;
+    }
+
+    /**
+     * Run a check, reporting its name and how long it took.
+     */
+    private static void run(String name, Check check) {
+        long start = System.nanoTime();
+        try {
+            check.run();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Exception e) {
+            throw new AssertionError(name, e);
+        }
+        System.out.printf("%-60s %6d ms%n", name, (System.nanoTime() - start) / 1_000_000);
+    }
+}
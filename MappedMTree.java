@@ -0,0 +1,651 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * <p>A read-only {@link MTree} backed by a memory-mapped file, meant for reference
+ * hierarchies too large to keep on the heap. The file is written once by
+ * {@link #write(MTree, Path, MTree.Codec)} and then mapped by
+ * {@link #open(Path, MTree.Codec)}; nothing but a handful of buffers is allocated when
+ * opening it, and values are decoded only when they are asked for.</p>
+ *
+ * <p>Nodes are numbered in breadth-first order, so the children of every node, and the
+ * nodes of every level below any node, sit in contiguous ranges of the file. Each node
+ * has a fixed-size entry in a few columns: its parent, where its children start, where
+ * its value starts, and a hash of its encoded value. Within the range of every node's
+ * children, a last column lists them sorted by that hash, so that
+ * {@link Node#searchChildrenFor(Object)} is a binary search over the mapped pages,
+ * comparing encoded bytes rather than decoded values.</p>
+ * <p><pre>
+ *     MappedMTree.write(tree, file, MTree.Codec.STRING);
+ *     MappedMTree&lt;String&gt; mapped = MappedMTree.open(file, MTree.Codec.STRING);
+ *     mapped.root().deepSearchChildrenFor("Python").ifPresent(MappedMTree.Node::print);
+ * </pre></p>
+ *
+ * <p>Lookups compare encoded values, so the codec must always write equal values the
+ * same way, as the codecs in {@link MTree.Codec} do. A mapped tree never changes and
+ * may be read from any amount of threads.</p>
+ *
+ * @param <T> The type of the data stored in the tree.
+ * @author github@mrodz
+ * @see MTree
+ * @see MTreeArena
+ * @since 8
+ */
+public class MappedMTree<T> {
+    /**
+     * The first four bytes of every file written by {@link #write(MTree, Path, MTree.Codec)}.
+     */
+    private static final int FORMAT_MAGIC = 0x4D54524D;
+
+    /**
+     * The version of the format written by {@link #write(MTree, Path, MTree.Codec)}.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The size, in bytes, of the header that precedes the columns.
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * Marks the absence of a node.
+     */
+    private static final int NONE = -1;
+
+    /**
+     * The file is mapped in segments of {@code 1 << SEGMENT_SHIFT} bytes, since a single
+     * buffer cannot span more than two gigabytes. Segments are a power of two, so an
+     * aligned {@code int} or {@code long} never straddles two of them.
+     */
+    private static final int SEGMENT_SHIFT = 30;
+
+    /**
+     * The mapped segments of the file, in order.
+     */
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * How to decode values, and encode the values being searched for.
+     */
+    private final MTree.Codec<T> codec;
+
+    /**
+     * The amount of nodes in the tree.
+     */
+    private final int size;
+
+    /**
+     * Where the column of value offsets starts: {@code size + 1} longs, relative to
+     * {@link #values}, the last of which marks the end of the values.
+     */
+    private final long offsets;
+
+    /**
+     * Where the column of parents starts: {@code size} ints.
+     */
+    private final long parents;
+
+    /**
+     * Where the column of child ranges starts: {@code size + 1} ints, the children of
+     * node {@code i} spanning from entry {@code i} up to entry {@code i + 1}.
+     */
+    private final long childStarts;
+
+    /**
+     * Where the column of hashes of every node's encoded value starts: {@code size} ints.
+     */
+    private final long hashes;
+
+    /**
+     * Where the column of children sorted by hash starts: {@code size} ints, laid out
+     * in the same ranges as the children themselves.
+     */
+    private final long byHash;
+
+    /**
+     * Where the encoded values start.
+     */
+    private final long values;
+
+    /**
+     * Specify whether or any special characters should be escaped when
+     * getting a fancy {@link String} version of the table (preferred: {@code true}).
+     * @see MTree#cancelEscapeSequences
+     */
+    private volatile boolean escapeCharacters = true;
+
+    /**
+     * How {@link TreeRenderer} walks the file, one node index at a time. The children
+     * of a node are consecutive, so each one is found from the one before it.
+     */
+    private final TreeRenderer.Shape<Integer> renderShape = new TreeRenderer.Shape<Integer>() {
+        @Override
+        public int childCount(Integer node) {
+            return childStartOf(node + 1) - childStartOf(node);
+        }
+
+        @Override
+        public Integer childAt(Integer parent, int index, Integer previous) {
+            return previous == null ? childStartOf(parent) : previous + 1;
+        }
+
+        @Override
+        public String label(Integer node) {
+            return decode(node).toString();
+        }
+    };
+
+    //
+    // CONSTRUCTORS
+    //
+
+    private MappedMTree(MappedByteBuffer[] segments, MTree.Codec<T> codec, int size) {
+        this.segments = segments;
+        this.codec = codec;
+        this.size = size;
+        this.offsets = HEADER_SIZE;
+        this.parents = offsets + 8L * (size + 1);
+        this.childStarts = parents + 4L * size;
+        this.hashes = childStarts + 4L * (size + 1);
+        this.byHash = hashes + 4L * size;
+        this.values = byHash + 4L * size;
+    }
+
+    /**
+     * Map a file written by {@link #write(MTree, Path, MTree.Codec)}. The file is closed
+     * once mapped; the mapping stays valid until the tree is garbage collected.
+     *
+     * @param file  the file.
+     * @param codec how to read the values, which must be the codec the file was written with.
+     * @param <R>   The type of the data stored in the tree.
+     * @return the tree.
+     * @throws IOException if the file cannot be mapped, or is not a tree in a supported
+     *                     version of the format.
+     */
+    public static <R> MappedMTree<R> open(Path file, MTree.Codec<R> codec) throws IOException {
+        if (codec == null) throw new NullPointerException("null input");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException("Not a mapped MTree: " + file);
+            }
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((length - 1) >>> SEGMENT_SHIFT) + 1];
+            for (int i = 0; i < segments.length; i++) {
+                long start = (long) i << SEGMENT_SHIFT;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << SEGMENT_SHIFT, length - start));
+            }
+
+            ByteBuffer header = segments[0];
+            if (header.getInt(0) != FORMAT_MAGIC) {
+                throw new IOException("Not a mapped MTree: " + file);
+            }
+            int version = header.getInt(4);
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported format version: " + version);
+            }
+            int size = header.getInt(8);
+            if (size <= 0) {
+                throw new IOException("Invalid node count: " + size);
+            }
+
+            MappedMTree<R> tree = new MappedMTree<>(segments, codec, size);
+            if (tree.values > length || tree.values + tree.getLong(tree.offsets + 8L * size) != length) {
+                throw new IOException("Truncated mapped MTree: " + file);
+            }
+            return tree;
+        }
+    }
+
+    /**
+     * Write a tree to a file that {@link #open(Path, MTree.Codec)} can map, replacing the
+     * file if it exists. Values are streamed to the file as they are encoded; the columns
+     * are gathered on the heap and written last, taking around twenty-four bytes per node.
+     *
+     * @param tree  the tree to write.
+     * @param file  the file.
+     * @param codec how to write the value of every node.
+     * @param <R>   The type of the data stored in the tree.
+     * @throws IOException if the file cannot be written, or {@code codec} throws.
+     */
+    public static <R> void write(MTree<R> tree, Path file, MTree.Codec<? super R> codec) throws IOException {
+        if (tree.size() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Tree too large: " + tree.size());
+        }
+        int n = (int) tree.size();
+        // A layout with no file behind it, to find where every column starts
+        MappedMTree<R> layout = new MappedMTree<>(null, null, n);
+
+        long[] offsets = new long[n + 1];
+        int[] parents = new int[n];
+        int[] childStarts = new int[n + 1];
+        int[] hashes = new int[n];
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            // Values first, in breadth-first order, from just past where the columns end
+            channel.position(layout.values);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+            DataOutputStream encoder = new DataOutputStream(scratch);
+
+            List<MTree<R>> order = new ArrayList<>(n);
+            order.add(tree);
+            parents[0] = NONE;
+            for (int i = 0; i < order.size(); i++) {
+                MTree<R> node = order.get(i);
+                order.set(i, null);
+
+                scratch.reset();
+                codec.write(node.getNodeValue(), encoder);
+                byte[] bytes = scratch.toByteArray();
+                out.write(bytes);
+                hashes[i] = hash(bytes, bytes.length);
+                offsets[i + 1] = offsets[i] + bytes.length;
+
+                childStarts[i] = order.size();
+                for (MTree<R> child : node.getChildren()) {
+                    parents[order.size()] = i;
+                    order.add(child);
+                }
+            }
+            childStarts[n] = n;
+            out.flush();
+
+            channel.position(0);
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            out.writeInt(FORMAT_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(n);
+            out.writeInt(0);
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+            for (int parent : parents) {
+                out.writeInt(parent);
+            }
+            for (int childStart : childStarts) {
+                out.writeInt(childStart);
+            }
+            for (int hash : hashes) {
+                out.writeInt(hash);
+            }
+
+            // The column is indexed like the nodes, and the root is no node's child
+            out.writeInt(NONE);
+
+            // Sort each range of children by hash, ties kept in their original order
+            long[] range = new long[16];
+            for (int i = 0; i < n; i++) {
+                int from = childStarts[i], count = childStarts[i + 1] - from;
+                if (count > range.length) {
+                    range = new long[Integer.highestOneBit(count) << 1];
+                }
+                for (int j = 0; j < count; j++) {
+                    range[j] = (long) hashes[from + j] << 32 | (from + j);
+                }
+                Arrays.sort(range, 0, count);
+                for (int j = 0; j < count; j++) {
+                    out.writeInt((int) range[j]);
+                }
+            }
+            out.flush();
+        }
+    }
+
+    //
+    // FILE ACCESS
+    //
+
+    private int getInt(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].getInt((int) (position & ((1 << SEGMENT_SHIFT) - 1)));
+    }
+
+    private long getLong(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].getLong((int) (position & ((1 << SEGMENT_SHIFT) - 1)));
+    }
+
+    private byte getByte(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & ((1 << SEGMENT_SHIFT) - 1)));
+    }
+
+    private int parentOf(int node) {
+        return getInt(parents + 4L * node);
+    }
+
+    private int childStartOf(int node) {
+        return getInt(childStarts + 4L * node);
+    }
+
+    private int hashOf(int node) {
+        return getInt(hashes + 4L * node);
+    }
+
+    /**
+     * @return the hash of the first {@code length} bytes of an encoded value.
+     */
+    private static int hash(byte[] bytes, int length) {
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        return h ^ h >>> 13;
+    }
+
+    /**
+     * Encode a value being searched for.
+     *
+     * @return the encoded value.
+     */
+    private byte[] encode(T value) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            codec.write(value, new DataOutputStream(out));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode the value of a node straight from the mapped pages.
+     *
+     * @return the value.
+     */
+    private T decode(int node) {
+        long start = getLong(offsets + 8L * node);
+        byte[] bytes = new byte[(int) (getLong(offsets + 8L * (node + 1)) - start)];
+        long position = values + start;
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = getByte(position + i);
+        }
+        try {
+            return codec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return whether the encoded value of a node is the same as {@code encoded}.
+     */
+    private boolean matches(int node, byte[] encoded, int hash) {
+        if (hashOf(node) != hash) {
+            return false;
+        }
+        long start = getLong(offsets + 8L * node);
+        if (getLong(offsets + 8L * (node + 1)) - start != encoded.length) {
+            return false;
+        }
+        long position = values + start;
+        for (int i = 0; i < encoded.length; i++) {
+            if (getByte(position + i) != encoded[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the child of a node that holds an encoded value, by binary search over the
+     * node's children sorted by hash.
+     *
+     * @return the index of the child, or {@link #NONE}.
+     */
+    private int lookup(int parent, byte[] encoded, int hash) {
+        int from = childStartOf(parent);
+        int lo = from, hi = childStartOf(parent + 1);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (hashOf(getInt(byHash + 4L * mid)) < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < childStartOf(parent + 1); i++) {
+            int child = getInt(byHash + 4L * i);
+            if (hashOf(child) != hash) {
+                break;
+            } else if (matches(child, encoded, hash)) {
+                return child;
+            }
+        }
+        return NONE;
+    }
+
+    //
+    // GETTERS + SETTERS
+    //
+
+    /**
+     * Get the root of this tree.
+     *
+     * @return a handle to the root node.
+     */
+    public Node root() {
+        return new Node(0);
+    }
+
+    /**
+     * Get the amount of nodes in this tree.
+     *
+     * @return the amount of nodes.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get whether this instance of {@link MappedMTree} is escaping character
+     * sequences in pretty Strings.
+     *
+     * @return whether it is or is not
+     */
+    public boolean isEscapingCharacters() {
+        return escapeCharacters;
+    }
+
+    /**
+     * Set whether this instance of {@link MappedMTree} is escaping character
+     * sequences in pretty Strings.
+     *
+     * @param escapeCharacters the value
+     */
+    public void setEscapingCharacters(boolean escapeCharacters) {
+        this.escapeCharacters = escapeCharacters;
+    }
+
+    /**
+     * A handle to a single node of a {@link MappedMTree}. Handles hold no state of their
+     * own besides the index of the node, so they are cheap to create and two handles to
+     * the same node are {@link #equals(Object) equal}.
+     */
+    public final class Node {
+        /**
+         * The index of this node in the file's columns.
+         */
+        private final int id;
+
+        private Node(int id) {
+            this.id = id;
+        }
+
+        /**
+         * Exclusively search the children that only span immediately from this node
+         * (ie. depth of one) for a node with a matching value. No value is decoded.
+         *
+         * @param data The object to be matched
+         * @return An {@link Optional} containing the node with the matching value
+         * to the object supplied, if found; otherwise, {@link Optional#empty()}
+         */
+        public Optional<Node> searchChildrenFor(final T data) {
+            if (data == null) {
+                return Optional.empty();
+            }
+            byte[] encoded = encode(data);
+            int child = lookup(id, encoded, hash(encoded, encoded.length));
+            return child == NONE ? Optional.empty() : Optional.of(new Node(child));
+        }
+
+        /**
+         * Search <u>every</u> child connected to this node for a node with a matching value.
+         * This method will return the shallowest match exclusively, to avoid mix-ups.
+         *
+         * <p>The nodes of every level below this one are a contiguous range of the file,
+         * so the search scans the hash column one level at a time, in the order a
+         * breadth-first search would visit them, and only compares the bytes of nodes
+         * whose hash matches. No value is decoded and no queue is kept.</p>
+         *
+         * @param data The object to be matched
+         * @return An {@link Optional} containing the node with the matching value
+         * to the object supplied, if found; otherwise, {@link Optional#empty()}
+         */
+        public Optional<Node> deepSearchChildrenFor(final T data) {
+            if (data == null) {
+                return Optional.empty();
+            }
+            byte[] encoded = encode(data);
+            int hash = hash(encoded, encoded.length);
+            if (matches(id, encoded, hash)) {
+                return Optional.of(this);
+            }
+
+            int from = childStartOf(id), to = childStartOf(id + 1);
+            while (from < to) {
+                for (int node = from; node < to; node++) {
+                    if (matches(node, encoded, hash)) {
+                        return Optional.of(new Node(node));
+                    }
+                }
+                // The children of a range of nodes are the range of the next level
+                int next = childStartOf(from);
+                to = childStartOf(to);
+                from = next;
+            }
+
+            // Cannot find value
+            return Optional.empty();
+        }
+
+        /**
+         * Get the Nth child to this node.
+         *
+         * @param index an {@code int} index
+         * @return the node at the specified index.
+         * @throws IndexOutOfBoundsException if the index supplied is greater than the total amount
+         *                                   of child nodes connected to this node, or less than zero.
+         */
+        public Node getNode(int index) throws IndexOutOfBoundsException {
+            int start = childStartOf(id);
+            if (index < 0 || index >= childStartOf(id + 1) - start) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            return new Node(start + index);
+        }
+
+        /**
+         * Get the actual value stored in this node, decoding it from the file.
+         *
+         * @return the data
+         * @throws UncheckedIOException if the codec cannot decode the value.
+         */
+        public T getNodeValue() {
+            return decode(id);
+        }
+
+        /**
+         * Get this node's parent.
+         *
+         * @return the parent, or {@code null} if this is the root node.
+         */
+        public Node getParent() {
+            return id == 0 ? null : new Node(parentOf(id));
+        }
+
+        /**
+         * Get the children to this node as a {@link List}. The list is a copy,
+         * built on every call.
+         *
+         * @return the children
+         */
+        public List<Node> getChildren() {
+            int start = childStartOf(id), end = childStartOf(id + 1);
+            List<Node> children = new ArrayList<>(end - start);
+            for (int child = start; child < end; child++) {
+                children.add(new Node(child));
+            }
+            return children;
+        }
+
+        /**
+         * Write this node's content to an {@link Appendable}, in the same format as
+         * {@link MTree#render(Appendable)}. The traversal follows the column of child
+         * ranges with an explicit stack, so it runs in constant call stack space at any
+         * depth, and values are decoded one at a time as they are written.
+         *
+         * @param out where to write the tree.
+         * @throws IOException if {@code out} does.
+         */
+        public void render(Appendable out) throws IOException {
+            TreeRenderer.render(id, renderShape, escapeCharacters, out);
+        }
+
+        /**
+         * Print this node's content in a natural, easy to follow manner.
+         *
+         * @see #render(Appendable)
+         */
+        public void print() {
+            TreeRenderer.print(id, renderShape, escapeCharacters);
+        }
+
+        /**
+         * Get this node's content in a fancy format.
+         *
+         * @return a large formatted {@link String}
+         * @see #print()
+         */
+        public String getFancyString() {
+            return TreeRenderer.fancyString(id, renderShape, escapeCharacters);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof MappedMTree.Node)) return false;
+            MappedMTree<?>.Node that = (MappedMTree<?>.Node) o;
+            return id == that.id && tree() == that.tree();
+        }
+
+        private MappedMTree<T> tree() {
+            return MappedMTree.this;
+        }
+
+        @Override
+        public int hashCode() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(decode(id));
+        }
+    }
+}
@@ -0,0 +1,396 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>The structure shared by {@link IntMTree} and {@link LongMTree}: the children of a
+ * node in insertion order, and the open-addressing table that indexes them by value once
+ * there are more than {@link #LINEAR_SCAN_LIMIT} of them.</p>
+ *
+ * <p>Values are handled as {@code long} keys here, which hold every {@code int}
+ * unchanged. Each subclass stores its own value unboxed, and exposes the methods that
+ * take or return a value with its own primitive type.</p>
+ *
+ * @param <N> The type of the nodes.
+ * @author github@mrodz
+ * @see IntMTree
+ * @see LongMTree
+ * @since 8
+ */
+abstract class PrimitiveMTree<N extends PrimitiveMTree<N>> {
+    /**
+     * Nodes with at most this many children are searched without a hash table.
+     */
+    private static final int LINEAR_SCAN_LIMIT = 8;
+
+    /**
+     * How {@link TreeRenderer} walks a tree of either type.
+     */
+    private static final TreeRenderer.Shape<PrimitiveMTree<?>> SHAPE = new TreeRenderer.Shape<PrimitiveMTree<?>>() {
+        @Override
+        public int childCount(PrimitiveMTree<?> node) {
+            return node.childCount;
+        }
+
+        @Override
+        public PrimitiveMTree<?> childAt(PrimitiveMTree<?> parent, int index, PrimitiveMTree<?> previous) {
+            return parent.CHILDREN[index];
+        }
+
+        @Override
+        public String label(PrimitiveMTree<?> node) {
+            return String.valueOf(node.key());
+        }
+    };
+
+    /**
+     * The parent node to this instance. If this is the root node, its parent is {@code null}
+     */
+    private N PARENT;
+
+    /**
+     * The children to this node, in insertion order. Only the first {@link #childCount}
+     * slots are in use.
+     */
+    private N[] CHILDREN;
+
+    /**
+     * The amount of children to this node.
+     */
+    private int childCount;
+
+    /**
+     * Open-addressing table of the children to this node, keyed by their values, or
+     * {@code null} while there are no more than {@link #LINEAR_SCAN_LIMIT} of them.
+     */
+    private N[] table;
+
+    PrimitiveMTree() {
+        this.CHILDREN = noChildren();
+    }
+
+    //
+    // NODE TYPE
+    //
+
+    /**
+     * @return the value of this node.
+     */
+    abstract long key();
+
+    /**
+     * Replace the value of this node, without touching the child table of its parent.
+     */
+    abstract void setKey(long key);
+
+    /**
+     * @return this node, as its own type.
+     */
+    abstract N self();
+
+    /**
+     * @return the shared empty array of nodes, whose type every child array copies.
+     */
+    abstract N[] noChildren();
+
+    /**
+     * @return a new node holding a value.
+     */
+    abstract N newNode(long key);
+
+    //
+    // SPECIALIZED METHODS
+    //
+
+    /**
+     * Add pre-determined nodes to this node.
+     *
+     * @param nodes the nodes to be added.
+     */
+    final void insertNodes(N[] nodes) {
+        for (N node : nodes) {
+            if (node == null) {
+                throw new NullPointerException("null input");
+            }
+        }
+        for (N node : nodes) {
+            if (findChild(node.key()) != null) {
+                throw new IllegalArgumentException("Duplicate entry into tree: " + node);
+            }
+            PrimitiveMTree<N> child = node;
+            if (child.PARENT != null) {
+                throw new IllegalArgumentException("Node already belongs to a tree: " + node);
+            }
+            MTree.requireNotAncestor(node, self(), PrimitiveMTree::getParent);
+            child.PARENT = self();
+            addChild(node);
+        }
+    }
+
+    /**
+     * Create a node to be added to this node from a value.
+     *
+     * @param key the value of the new node.
+     */
+    final void insertKey(long key) {
+        if (findChild(key) != null) {
+            throw new IllegalArgumentException("Duplicate entry into tree: " + key);
+        }
+        N child = newNode(key);
+        PrimitiveMTree<N> node = child;
+        node.PARENT = self();
+        addChild(child);
+    }
+
+    /**
+     * @return the child holding a value, or {@code null}. This method does not allocate.
+     */
+    final N findChild(long key) {
+        N[] table = this.table;
+        if (table == null) {
+            for (int i = 0; i < childCount; i++) {
+                if (CHILDREN[i].key() == key) {
+                    return CHILDREN[i];
+                }
+            }
+            return null;
+        }
+
+        int mask = table.length - 1;
+        for (int i = hash(key) & mask; table[i] != null; i = (i + 1) & mask) {
+            if (table[i].key() == key) {
+                return table[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the shallowest node spanning from this one (inclusive) holding a value,
+     * or {@code null}.
+     */
+    final N deepSearch(long key) {
+        if (key() == key) {
+            return self();
+        }
+
+        // Breadth-first, so the first child index hit is the shallowest match
+        N[] queue = Arrays.copyOf(noChildren(), 16);
+        int head = 0, tail = 0;
+        queue[tail++] = self();
+        while (head < tail) {
+            PrimitiveMTree<N> current = queue[head];
+            queue[head++] = null;
+            N match = current.findChild(key);
+            if (match != null) {
+                return match;
+            }
+            if (tail + current.childCount > queue.length) {
+                // Reclaim the consumed head of the queue before growing it
+                System.arraycopy(queue, head, queue, 0, tail - head);
+                Arrays.fill(queue, tail - head, tail, null);
+                tail -= head;
+                head = 0;
+                if (tail + current.childCount > queue.length) {
+                    queue = Arrays.copyOf(queue, Math.max(queue.length << 1, tail + current.childCount));
+                }
+            }
+            System.arraycopy(current.CHILDREN, 0, queue, tail, current.childCount);
+            tail += current.childCount;
+        }
+
+        // Cannot find value
+        return null;
+    }
+
+    /**
+     * Update the value stored in this node, keeping its parent's child table in step.
+     *
+     * @throws IllegalArgumentException if a sibling to this node already holds the value.
+     */
+    final void setValue(long key) {
+        PrimitiveMTree<N> parent = this.PARENT;
+        if (parent == null || key() == key) {
+            setKey(key);
+        } else if (parent.findChild(key) != null) {
+            throw new IllegalArgumentException("Duplicate entry into tree: " + key);
+        } else if (parent.table != null) {
+            parent.unlink(self());
+            setKey(key);
+            parent.link(self());
+        } else {
+            setKey(key);
+        }
+    }
+
+    /**
+     * Write this tree's content to an {@link Appendable}, in the same format as
+     * {@link MTree#render(Appendable)}.
+     *
+     * @param out where to write the tree.
+     * @throws IOException if {@code out} does.
+     */
+    public void render(Appendable out) throws IOException {
+        TreeRenderer.render(this, SHAPE, false, out);
+    }
+
+    /**
+     * Print this tree's content in a natural, easy to follow manner.
+     *
+     * @see #render(Appendable)
+     */
+    public void print() {
+        TreeRenderer.print(this, SHAPE, false);
+    }
+
+    /**
+     * Get this tree's content in a fancy format.
+     *
+     * @return a large formatted {@link String}
+     * @see #print()
+     */
+    public String getFancyString() {
+        return TreeRenderer.fancyString(this, SHAPE, false);
+    }
+
+    //
+    // CHILD INDEX
+    //
+
+    /**
+     * Set a node as this tree's child.
+     *
+     * @param child the node
+     */
+    private void addChild(N child) {
+        if (childCount == CHILDREN.length) {
+            CHILDREN = Arrays.copyOf(CHILDREN, Math.max(4, childCount + (childCount >> 1)));
+        }
+        CHILDREN[childCount++] = child;
+
+        if (table != null) {
+            if (childCount * 2 > table.length) {
+                rehash(table.length << 1);
+            } else {
+                link(child);
+            }
+        } else if (childCount > LINEAR_SCAN_LIMIT) {
+            rehash(Integer.highestOneBit(childCount) << 2);
+        }
+    }
+
+    /**
+     * Rebuild the child table with a new amount of slots.
+     */
+    private void rehash(int slots) {
+        table = Arrays.copyOf(noChildren(), slots);
+        for (int i = 0; i < childCount; i++) {
+            link(CHILDREN[i]);
+        }
+    }
+
+    /**
+     * Add a child to the table.
+     */
+    private void link(N child) {
+        int mask = table.length - 1;
+        int i = hash(child.key()) & mask;
+        while (table[i] != null) {
+            i = (i + 1) & mask;
+        }
+        table[i] = child;
+    }
+
+    /**
+     * Remove a child from the table, shifting back the entries that probed past it.
+     */
+    private void unlink(N child) {
+        int mask = table.length - 1;
+        int i = hash(child.key()) & mask;
+        while (table[i] != child) {
+            i = (i + 1) & mask;
+        }
+
+        for (int j = (i + 1) & mask; table[j] != null; j = (j + 1) & mask) {
+            int home = hash(table[j].key()) & mask;
+            // Move the entry into the hole unless its home lies cyclically within (i, j]
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                table[i] = table[j];
+                i = j;
+            }
+        }
+        table[i] = null;
+    }
+
+    /**
+     * Fold a value into an {@code int} and spread its bits, so that runs of consecutive
+     * ids do not cluster in the table.
+     */
+    private static int hash(long value) {
+        int h = (int) (value ^ (value >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    //
+    // GETTERS + SETTERS
+    //
+
+    /**
+     * Get the Nth child to this node.
+     *
+     * @param index an {@code int} index
+     * @return the node at the specified index.
+     * @throws IndexOutOfBoundsException if the index supplied is greater than the total amount
+     *                                   of child nodes connected to this node, or less than zero.
+     */
+    public N getNode(int index) throws IndexOutOfBoundsException {
+        if (index < 0 || index >= childCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + childCount);
+        }
+        return CHILDREN[index];
+    }
+
+    /**
+     * Get this node's parent.
+     *
+     * @return the parent.
+     */
+    public N getParent() {
+        return PARENT;
+    }
+
+    /**
+     * Get the children to this node as a read-only {@link List}. The list is a snapshot,
+     * copied on every call, so children inserted afterwards do not show up in it.
+     *
+     * @return the children
+     */
+    public List<N> getChildren() {
+        return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(CHILDREN, childCount)));
+    }
+
+    /**
+     * Get the amount of children to this node.
+     *
+     * @return the amount of children.
+     */
+    public int getChildCount() {
+        return childCount;
+    }
+
+    //
+    // OVERRIDES
+    //
+
+    /**
+     * Provides a compacted representation of this table. For a prettier visualization,
+     * see {@link #print()}
+     *
+     * @return a {@link String} object containing this node's value and its children.
+     */
+    @Override
+    public String toString() {
+        return String.format("%s{DATA=%s, CHILDREN=%s}", this.getClass().getSimpleName(), key(), getChildren());
+    }
+}
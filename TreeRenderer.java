@@ -0,0 +1,143 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * <p>Renders the trees that are not an {@link MTree} (arenas, primitive, concurrent,
+ * frozen and mapped trees) in the same format as {@link MTree#render(Appendable)}. Each
+ * tree describes its shape through a {@link Shape}, and the renderer walks it with an
+ * explicit stack, so it runs in constant call stack space at any depth.</p>
+ *
+ * @author github@mrodz
+ * @see MTree#render(Appendable)
+ * @since 8
+ */
+final class TreeRenderer {
+    private TreeRenderer() {
+    }
+
+    /**
+     * How to walk a tree made of nodes of type {@code N}.
+     *
+     * @param <N> The type of the nodes, or of the handles to them.
+     */
+    interface Shape<N> {
+        /**
+         * @return the amount of children to a node. It is read once per node, when the
+         * render reaches it.
+         */
+        int childCount(N node);
+
+        /**
+         * Get a child of a node. Children are asked for in order, so trees that link
+         * siblings can step from {@code previous} rather than count from the first.
+         *
+         * @param parent   the node.
+         * @param index    the position of the child, below the count read for {@code parent}.
+         * @param previous the child at {@code index - 1}, or {@code null} for the first.
+         * @return the child.
+         */
+        N childAt(N parent, int index, N previous);
+
+        /**
+         * @return the text of a node's line, before escaping.
+         */
+        String label(N node);
+    }
+
+    /**
+     * Write a tree to an {@link Appendable}. The root's line is written as is; every
+     * other line is escaped with {@link MTree#appendEscaped(CharSequence, Appendable)}
+     * if {@code escape} is set.
+     *
+     * @param root   the node to start from.
+     * @param shape  how to walk the tree.
+     * @param escape whether to escape special characters.
+     * @param out    where to write the tree.
+     * @param <N>    The type of the nodes.
+     * @throws IOException if {@code out} does.
+     */
+    @SuppressWarnings("unchecked")
+    static <N> void render(N root, Shape<N> shape, boolean escape, Appendable out) throws IOException {
+        out.append(shape.label(root));
+
+        // Per level: the node whose children are being written, their count, the position
+        // reached, and the child written last
+        Object[] parents = new Object[8];
+        Object[] previous = new Object[8];
+        int[] count = new int[8];
+        int[] position = new int[8];
+        StringBuilder prefix = new StringBuilder();
+        int segment = MTree.PIPE_SEGMENT.length();
+        int depth = 0;
+        parents[0] = root;
+        count[0] = shape.childCount(root);
+
+        while (depth >= 0) {
+            if (position[depth] == count[depth]) {
+                parents[depth] = previous[depth] = null;
+                if (--depth >= 0) {
+                    prefix.setLength(prefix.length() - segment);
+                }
+                continue;
+            }
+
+            N node = shape.childAt((N) parents[depth], position[depth], (N) previous[depth]);
+            previous[depth] = node;
+            boolean last = ++position[depth] == count[depth];
+            String label = shape.label(node);
+            out.append('\n').append(prefix).append(last ? MTree.LAST_BRANCH : MTree.BRANCH);
+            if (escape) {
+                MTree.appendEscaped(label, out);
+            } else {
+                out.append(label);
+            }
+
+            int nodeCount = shape.childCount(node);
+            if (nodeCount != 0) {
+                if (++depth == count.length) {
+                    parents = Arrays.copyOf(parents, depth << 1);
+                    previous = Arrays.copyOf(previous, depth << 1);
+                    count = Arrays.copyOf(count, depth << 1);
+                    position = Arrays.copyOf(position, depth << 1);
+                }
+                parents[depth] = node;
+                count[depth] = nodeCount;
+                position[depth] = 0;
+                prefix.append(last ? MTree.BLANK_SEGMENT : MTree.PIPE_SEGMENT);
+            }
+        }
+    }
+
+    /**
+     * Print a tree to {@link System#out}, followed by a line separator.
+     *
+     * @see #render(Object, Shape, boolean, Appendable)
+     */
+    static <N> void print(N root, Shape<N> shape, boolean escape) {
+        Writer out = MTree.consoleWriter();
+        try {
+            render(root, shape, escape, out);
+            out.write(System.lineSeparator());
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Render a tree to a {@link String}.
+     *
+     * @see #render(Object, Shape, boolean, Appendable)
+     */
+    static <N> String fancyString(N root, Shape<N> shape, boolean escape) {
+        StringBuilder str = new StringBuilder();
+        try {
+            render(root, shape, escape, str);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return str.toString();
+    }
+}